@@ -4,13 +4,15 @@
 
 package com.equalize.xpi.adapter.ra;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
@@ -18,8 +20,6 @@ import javax.resource.cci.InteractionSpec;
 import javax.resource.cci.Record;
 import javax.resource.cci.ResourceWarning;
 
-import com.equalize.xpi.util.converter.ConversionDOMInput;
-import com.equalize.xpi.util.converter.Converter;
 import com.sap.engine.interfaces.messaging.api.Action;
 import com.sap.engine.interfaces.messaging.api.ErrorInfo;
 import com.sap.engine.interfaces.messaging.api.Message;
@@ -39,7 +39,6 @@ import com.sap.aii.af.lib.ra.cci.XIInteractionSpec;
 import com.sap.aii.af.lib.ra.cci.XIMessageRecord;
 import com.sap.aii.af.service.cpa.BinaryData;
 import com.sap.aii.af.service.cpa.Binding;
-import com.sap.aii.af.service.cpa.CPAObjectType;
 import com.sap.aii.af.service.cpa.Channel;
 import com.sap.aii.af.service.cpa.Direction;
 import com.sap.aii.af.service.cpa.NormalizationManager;
@@ -64,6 +63,8 @@ public class CCIInteraction implements XIInteraction {
 	private static final XITrace TRACE = new XITrace(CCIInteraction.class.getName());
 	private static final String ADDR_AGENCY_EAN = "009"; //Values see XI IB
 	private static final String ADDR_SCHEMA_GLN = "GLN"; //Values see XI IB
+	// Maximum time in ms to wait for the files of a multi-file retrieval
+	private static final long FILE_READ_TIMEOUT = 60000;
     private javax.resource.cci.Connection connection;
 	private XIMessageFactoryImpl mf = null;
 	private SPIManagedConnection mc = null;
@@ -235,20 +236,56 @@ public class CCIInteraction implements XIInteraction {
 
    		Message msg = ((XIMessageRecord) input).getXIMessage();
    		MessageKey amk = new MessageKey(msg.getMessageId(), MessageDirection.INBOUND);
+   		// The channel configuration was validated when the channel was added or updated
+   		XIOutboundChannelConfig config = mcf.getOutboundConfig(mc.getChannel());
+   		// The entries of the synchronous call are kept in memory, hence they are handed over once but not flushed
+   		XIAuditWriter auditWriter = new XIAuditWriter(this.audit, config.getAuditLevel());
        	try {
-       		// Parse the XML input using DOM and evaluate the XPath expression
-    		ConversionDOMInput domIn = new ConversionDOMInput(msg.getDocument().getText());
-    		String xpathToFile = mc.getChannel().getValueAsString("xpathToFile");    		
-    		String inFile = domIn.evaluateXPathToString(xpathToFile);
-    		this.audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "XPath expression: " + xpathToFile);
-    		this.audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "XPath expression value: " + inFile);
+       		// Evaluate the XPath expression compiled with the channel configuration on the payload bytes,
+       		// simple paths are evaluated by a scan that stops at the first match, i.e. without String copy and DOM
+    		String xpathToFile = config.getXpathToFile();
+    		List values = null;
+    		InputStream docStr = msg.getDocument().getInputStream();
+    		try {
+    			if (config.isMultipleFiles())
+    				values = config.getXpathEvaluator().evaluateAll(docStr, config.getMaxFiles() + 1);
+    			else {
+    				values = new ArrayList(1);
+    				values.add(config.getXpathEvaluator().evaluate(docStr));
+    			}
+    		} finally {
+    			docStr.close();
+    		}
+    		auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_FULL, "XPath expression: " + xpathToFile);
+    		auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_FULL, "XPath expression value: " + (config.isMultipleFiles() ? values.toString() : values.get(0)));
+    		// An empty value (no match or an empty node) does not name a file
+    		List inFiles = new ArrayList(values.size());
+    		for (int i = 0; i < values.size(); i++) {
+    			String value = (String) values.get(i);
+    			if ((value != null) && (value.trim().length() > 0))
+    				inFiles.add(value);
+    		}
+    		if (inFiles.isEmpty())
+    			throw new ResourceException("XPath expression " + xpathToFile + " does not select any file");
+    		if (inFiles.size() > config.getMaxFiles())
+    			throw new ResourceException("XPath expression " + xpathToFile + " selects more than " + config.getMaxFiles() + " files");
     		
-    		// Retrieve the file contents
-    		InputStream inpStr = new FileInputStream(new File(inFile));
-    		ByteArrayOutputStream baos = Converter.toBAOS(inpStr);	
+    		// Retrieve the file contents, the array is allocated once with the file size and the file is closed
+    		// Channels with file cache serve unchanged files from memory
+    		XIFileContentCache fileCache = mcf.getFileCache(config);
+    		long mapThreshold = mcf.getFileMapThreshold().intValue();
+    		byte[][] contents = null;
+    		if (config.isMultipleFiles()) {
+    			// The files are read in parallel, the limits protect the heap of the AF
+    			XIMultiFileReader reader = new XIMultiFileReader(mcf.getFileReadPool(), fileCache, mapThreshold);
+    			contents = reader.read((String[]) inFiles.toArray(new String[inFiles.size()]), config.getMaxTotalSize(), FILE_READ_TIMEOUT);
+    		} else if (fileCache != null)
+    			contents = new byte[][] {fileCache.get(new File((String) inFiles.get(0)), mapThreshold)};
+    		else
+    			contents = new byte[][] {XIFileReader.read(new File((String) inFiles.get(0)), mapThreshold)};
 
     		// Create response XI message
-    		this.audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "File retrieved, constructing response message");
+    		auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_FULL, contents.length + " file(s) retrieved, constructing response message");
     		XIMessageRecordImpl output = new XIMessageRecordImpl(msg.getToParty(),msg.getFromParty(),
 											    				msg.getToService(), msg.getFromService(),
 											    				msg.getAction());
@@ -256,21 +293,38 @@ public class CCIInteraction implements XIInteraction {
 
     		// Populate payload and attributes of response message
     		XMLPayload payload = response.createXMLPayload();
-    		payload.setContent(baos.toByteArray());
+    		payload.setContent(contents[0]);
     		payload.setName("MainDocument");
     		payload.setDescription("EQ Adapter Synchronous Response");
     		payload.setContentType("application/xml");
 
+    		// The further files of a multi-file retrieval are attached with their file names
+    		Set names = new HashSet();
+    		for (int i = 1; i < contents.length; i++) {
+    			String path = (String) inFiles.get(i);
+    			String name = new File(path).getName();
+    			if (!names.add(name))
+    				name = name + "_" + i;
+    			XMLPayload attachment = response.createXMLPayload();
+    			attachment.setContent(contents[i]);
+    			attachment.setName(name);
+    			attachment.setDescription(path);
+    			attachment.setContentType("application/xml");
+    			response.addAttachment(attachment);
+    		}
+
     		response.setDocument(payload);
     		response.setRefToMessageId(msg.getMessageId());	
-    		this.audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Response message construction completed");
+    		auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_SUMMARY, "Response message construction completed");
     		return (Record) output;
     		
     	} catch (Exception e) {
-    		this.audit.addAuditLogEntry(amk, AuditLogStatus.ERROR, e.getMessage());
+    		auditWriter.add(amk, AuditLogStatus.ERROR, XIAuditWriter.LEVEL_SUMMARY, e.getMessage());
     		ResourceException re = new ResourceException(e.getMessage()); 
 			TRACE.throwing("retrieveFile (InteractionSpec ispec, Record input, SPIManagedConnection mc)", re);
 			throw re;
+    	} finally {
+    		auditWriter.write();
     	}
     }
 
@@ -344,7 +398,7 @@ public class CCIInteraction implements XIInteraction {
 			// Here the second possibilty (not preferred)
 			// If the channel is assigned to more than one agreement then binding and bindingByChannel could be different
 			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT, "Get receiver agreement for channel ID {0} now.", new Object[] { channelID });
-			Binding bindingByChannel = CPAFactory.getInstance().getLookupManager().getBindingByChannelId(channelID);
+			Binding bindingByChannel = mcf.getCPACache().getBinding(channelID);
 
 			// It is possible to use the binding object for reading the channel and agreement configuration data:
 			readSampleConfiguration(outLookup, bindingByChannel); 
@@ -471,9 +525,9 @@ public class CCIInteraction implements XIInteraction {
 
 		try {
 			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT, "Get channel CPA object with channelID {0}", new Object[] {channelID});
-			Channel channel = (Channel) CPAFactory.getInstance().getLookupManager().getCPAObject(CPAObjectType.CHANNEL, channelID);
-			result[0] = channel.getValueAsString("faultInterface");
-			result[1] = channel.getValueAsString("faultInterfaceNamespace");
+			XIOutboundChannelConfig config = mcf.getOutboundConfig(mcf.getCPACache().getChannel(channelID));
+			result[0] = config.getFaultInterface();
+			result[1] = config.getFaultInterfaceNamespace();
 			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Read this fault interface value: Name: {0} Namespace: {1}", new Object[] {result[0], result[1]});
 		} catch (Exception e) {
 			TRACE.catching(SIGNATURE, e);
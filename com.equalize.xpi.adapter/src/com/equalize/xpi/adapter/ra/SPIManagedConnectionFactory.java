@@ -4,15 +4,23 @@
 
 package com.equalize.xpi.adapter.ra;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.LineNumberReader;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
@@ -31,17 +39,13 @@ import javax.resource.spi.security.PasswordCredential;
 import javax.security.auth.Subject;
 import javax.xml.bind.DatatypeConverter;
 
-import com.equalize.xpi.util.converter.ConversionDOMInput;
 import com.sap.transaction.TxException;
 import com.sap.transaction.TxManager; 
 import com.sap.transaction.TransactionTicket;
 import com.sap.transaction.TxRollbackException;
 
 import com.sap.guid.GUID;
-import com.sap.httpclient.HostConfiguration;
 import com.sap.httpclient.HttpClient;
-import com.sap.httpclient.auth.AuthScope;
-import com.sap.httpclient.auth.UserPassCredentials;
 import com.sap.httpclient.http.methods.GET;
 
 import com.sap.engine.interfaces.connector.ManagedConnectionFactoryActivation; 
@@ -60,16 +64,13 @@ import com.sap.engine.interfaces.messaging.api.auditlog.AuditAccess;
 
 import com.sap.aii.af.lib.mp.module.ModuleData;
 import com.sap.aii.af.lib.mp.processor.ModuleProcessor;
-import com.sap.aii.af.lib.mp.processor.ModuleProcessorFactory;
 
 import com.sap.aii.af.lib.ra.cci.XIAdapterException;
 
 import com.sap.aii.af.service.administration.api.cpa.CPAFactory;
 import com.sap.aii.af.service.administration.api.cpa.CPAInboundRuntimeLookupManager;
 import com.sap.aii.af.service.cpa.Binding;
-import com.sap.aii.af.service.cpa.CPAObjectType;
 import com.sap.aii.af.service.cpa.Channel;
-import com.sap.aii.af.service.cpa.Direction;
 import com.sap.aii.af.service.cpa.NormalizationManager;
 import com.sap.aii.af.service.cpa.Party;
 import com.sap.aii.af.service.cpa.Service;
@@ -104,6 +105,7 @@ import com.sap.aii.af.service.administration.api.monitoring.ProcessState;
  * 7. Introduce XITrace utility class and refer to J2EE logging directly
  * 8. Built against the new XI AF facades, see cross reference Excel for details.
  * 9. ModuleProcessor reference is not cached. (7.1 SP3 change)
+ * 10. ModuleProcessor reference is cached again by XIModuleProcessorHolder which looks it up again if it became stale.
  * 
  * @version: $Id: //tc/xpi.external/NW07_07_REL/src/_sample_rar_module/rar/src/com/sap/aii/af/sample/adapter/ra/SPIManagedConnectionFactory.java#1 $
  **/
@@ -152,6 +154,44 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 	// A specific class that manages the XI configuration
 	private XIConfiguration xIConfiguration = null;
 
+	// The poll plan of the inbound channels. Each channel is polled according to its own poll interval.
+	private transient XIPollingScheduler scheduler = new XIPollingScheduler(waitTime);
+
+	// The worker threads that poll the inbound channels in parallel. The pool is drained when the inbound processing is stopped.
+	private transient XIWorkerPool workerPool = null;
+	private static int drainTime = 30000;
+
+	// The status of the inbound channels is noted by the workers and pushed to the AAM monitor by the MCF thread
+	private transient XIStatusReporter statusReporter = null;
+	private static final int STATUS_HEARTBEAT = 60000;
+
+	// The latency of the message dispatch into the XI AF that throttles the polling
+	private transient XIDispatchMonitor dispatchMonitor = new XIDispatchMonitor(0, 1, THROTTLE_ADJUST_INTERVAL);
+	private static final int THROTTLE_ADJUST_INTERVAL = 10000;
+	private static final int WORKER_QUEUE_CAPACITY = 1000;
+
+	// The OAuth access tokens of the inbound channels. A token is reused till it expires.
+	private transient XITokenCache tokenCache = null;
+	private static final String TOKEN_XPATH = "/Access_Token/Token";
+
+	// The HTTP clients of the inbound channels. The connections of a channel are kept open between the polls.
+	private transient XIHttpClientRegistry httpClients = new XIHttpClientRegistry();
+	private static final int HTTP_IDLE_TIMEOUT = 120000;
+	private static final int HTTP_IDLE_CHECK_INTERVAL = 30000;
+
+	// The channel objects and bindings read from the XI CPA cache. Entries are dropped on channel updates.
+	private transient XICPACache cpaCache = new XICPACache();
+
+	// The circuit breakers of the endpoint hosts. Hosts that are down are not polled till their retry time.
+	private transient XICircuitBreaker circuitBreaker = new XICircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_TIME, BREAKER_MAX_OPEN_TIME);
+	private static final int BREAKER_FAILURE_THRESHOLD = 3;
+	private static final long BREAKER_OPEN_TIME = 10000;
+	private static final long BREAKER_MAX_OPEN_TIME = 600000;
+	private static final long MIN_RETRY_DELAY = 1000;
+
+	// The ETag and Last-Modified values of the last poll of each inbound channel (channel ID -> XIChannelPollState)
+	private transient Map pollStates = Collections.synchronizedMap(new HashMap());
+
 	// A Map to manage all created ManagedConnections
 	// Although the J2EE JCA container manages pools of ManagedConnections as well, it is reasonable
 	// to maintain the own ManagedConnection objects because ManagedConnection in this sample	
@@ -163,6 +203,15 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 
 	// XI AF Message ID mapper
 	private transient MessageIDMapper messageIDMapper = null;
+	// The IDs of the polled contents that were sent already. Used by inbound channels with duplicate check.
+	private transient XIDuplicateCache duplicateCache = null;
+	private static final int DUPLICATE_CACHE_SIZE = 10000;
+	private static final long DUPLICATE_RETENTION = 1000*60*60*24;
+
+	// The persisted watermarks and page positions of the inbound channels with incremental polling
+	private transient XIWatermarkStore watermarkStore = null;
+	private String watermarkFile = null;
+
     private transient XIMessageFactoryImpl mf = null; 
 
 	// Channel status
@@ -185,11 +234,43 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 	private String adapterNamespace = null;
 	private int propWaitNum = 10; 
 	private int propWaitTime = 1000; 
+
+	// The cached local reference to the XI AF module processor bean
+	private transient XIModuleProcessorHolder moduleProcessorHolder = new XIModuleProcessorHolder(propWaitTime);
+
+	// Adapter-wide maximum of inbound channels that are polled in parallel
+	private int maxPollingThreads = 5;
+
+	// Backpressure: the poll intervals are stretched up to maxThrottleFactor while the XI AF takes longer than
+	// dispatchLatencyThreshold ms on average to take over a message (0 switches the throttling off)
+	private int dispatchLatencyThreshold = 2000;
+	private int maxThrottleFactor = 8;
+
+	// Push mode: channels receive their data via the embedded HTTP listener on pushListenerPort (0 switches it off).
+	// The listener is bound to pushBindAddress only (empty for all interfaces), each channel checks its own credential.
+	// At most pushQueueCapacity pushed requests wait for the worker pool, further requests are answered with 503.
+	private String pushBindAddress = "";
+	private int pushListenerPort = 0;
+	private int pushQueueCapacity = 100;
+	private transient XIPushListener pushListener = null;
+	private static final int MAX_PUSH_SIZE = 10485760;
+
+	// Files retrieved by the outbound channels are memory-mapped from this size on (0 switches the mapping off)
+	private int fileMapThreshold = 1048576;
+
+	// The file content caches of the outbound channels that cache the retrieved files (channel ID -> XIFileContentCache)
+	private transient Map fileCaches = new HashMap();
+
+	// The worker threads that read the files of the multi-file requests in parallel (maxFileReadThreads per MCF)
+	private int maxFileReadThreads = 4;
+	private transient XIWorkerPool fileReadPool = null;
+	private static final int FILE_READ_QUEUE_CAPACITY = 100;
 	
 	// Defaults if channel parameters cannot be read
 	static final String OUT_DIR      = "c:/temp";
 	static final String OUT_PREFIX   = "sample_ra_output";
-	static final String IN_DIR       = "c:/temp";	static final String IN_NAME      = "sample_ra_input";
+	static final String IN_DIR       = "c:/temp";
+	static final String IN_NAME      = "sample_ra_input";
 
 	// The process mode controls the handling of a sent file (sender channel)
 	private static final String PM_TEST   = "test";     // Do not change the file, no duplicate check
@@ -391,14 +472,14 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 		ModuleProcessor mp = null;
 
 		try {
-			mp = ModuleProcessorFactory.getModuleProcessor(true, retryNum, propWaitTime);
+			mp = moduleProcessorHolder.getModuleProcessor(retryNum);
 		} catch (Exception e) {
 			TRACE.catching(SIGNATURE, e);
 			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot get access to the XI AF module processor. Ejb might not have been started yet.");
 			ResourceException re = new ResourceException("Cannot get access to the XI AF module processor. Ejb might not have been started yet.");
 			throw re;
 		}
-		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Lookup of XI AF MP entry ejb was succesfully.");
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Lookup of XI AF MP entry ejb was succesfully. ({0})", new Object [] {moduleProcessorHolder.toString()});
 		TRACE.exiting(SIGNATURE);
 		return mp;
 	}
@@ -464,7 +545,7 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 		// Determine channel configuration. In this sample it is just the output directory and file name
 		try {
 			channelID = ((CCIConnectionRequestInfo)info).getChannelId();
-			channel = (Channel) CPAFactory.getInstance().getLookupManager().getCPAObject(CPAObjectType.CHANNEL, channelID);
+			channel = cpaCache.getChannel(channelID);
 		}
 		catch(Exception e) {
 			TRACE.catching(SIGNATURE, e);
@@ -521,6 +602,249 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 		TRACE.exiting(SIGNATURE);
 	}
 
+	/**
+	 * 
+	 * When the XI CPA Cache triggers a channel add (or update) for an inbound channel
+	 * the channel is added to the poll plan of the inbound processing. A channel in push mode
+	 * is not polled, its path is routed to the channel by the push listener instead.
+	 * (ra implementation specific)
+	 *
+	 * @param config Validated configuration of the XI inbound channel that has to be polled
+	 **/      
+	void scheduleInboundChannel(XIInboundChannelConfig config) {
+		final String SIGNATURE = "scheduleInboundChannel(XIInboundChannelConfig config)";
+		TRACE.entering(SIGNATURE, new Object[] {config});
+		if (!config.isPushMode())
+			scheduler.schedule(config);
+		else if (pushListener == null)
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel {0} is in push mode but the push listener is not running (pushListenerPort: {1}).", 
+				new Object[] {config.getChannelID(), Integer.toString(pushListenerPort)});
+		else if (!pushListener.register(config.getPushPath(), config.getChannelID(), config.getPushAuthorization()))
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push path {0} of channel {1} is used by another channel already. The channel does not receive data.", 
+				new Object[] {config.getPushPath(), config.getChannelID()});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * 
+	 * When the XI CPA Cache triggers a channel remove for an inbound channel
+	 * the channel is removed from the poll plan of the inbound processing.
+	 * (ra implementation specific)
+	 *
+	 * @param channelID XI channel ID of the inbound channel that must not be polled anymore
+	 **/      
+	void unscheduleInboundChannel(String channelID) {
+		final String SIGNATURE = "unscheduleInboundChannel(String channelID)";
+		TRACE.entering(SIGNATURE, new Object[] {channelID});
+		scheduler.unschedule(channelID);
+		if (pushListener != null)
+			pushListener.unregister(channelID);
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * 
+	 * Returns the poll interval that is currently used for an inbound channel.
+	 * It differs from the configured poll interval if the channel uses adaptive polling.
+	 * (ra implementation specific)
+	 *
+	 * @param channelID XI channel ID of the inbound channel
+	 * @return Current poll interval in milliseconds or -1 if the channel is not polled
+	 **/      
+	long getCurrentPollInterval(String channelID) {
+		return scheduler.getCurrentInterval(channelID);
+	}
+
+	/**
+	 * 
+	 * Returns the time when the endpoints of an inbound channel are polled again after they were down.
+	 * (ra implementation specific)
+	 *
+	 * @param config Configuration of the XI inbound channel
+	 * @return Retry time in ms since epoch or -1 if the circuit breakers of the endpoints are closed
+	 **/      
+	long getEndpointRetryTime(XIInboundChannelConfig config) {
+		if (config.isPushMode())
+			return -1;
+		long retryTime = circuitBreaker.getRetryTime(XICircuitBreaker.getHost(config.getUrlEndpoint()));
+		return Math.max(retryTime, circuitBreaker.getRetryTime(XICircuitBreaker.getHost(config.getTokenEndpoint())));
+	}
+
+	/**
+	 * 
+	 * Returns the validated configuration of an outbound channel. If the channel is not known yet
+	 * (e.g. the CPA callback is still running) the configuration is built from the channel object.
+	 * (ra implementation specific)
+	 *
+	 * @param channel XI outbound channel
+	 * @return Typed configuration of the channel
+	 * @throws ResourceException if the configuration of the channel is invalid
+	 **/      
+	XIOutboundChannelConfig getOutboundConfig(Channel channel) throws ResourceException {
+		final String SIGNATURE = "getOutboundConfig(Channel channel)";
+		XIConfiguration configuration = xIConfiguration;
+		if (configuration != null) {
+			XIOutboundChannelConfig config = configuration.getOutboundConfig(channel.getObjectId());
+			if (config != null)
+				return config;
+			String error = configuration.getConfigError(channel.getObjectId());
+			if (error != null) {
+				ResourceException re = new ResourceException("Configuration of channel " + channel.getObjectId() + " is invalid: " + error);
+				TRACE.throwing(SIGNATURE, re);
+				throw re;
+			}
+		}
+		return new XIOutboundChannelConfig(channel);
+	}
+
+	/**
+	 * 
+	 * Checks whether a channel in push mode can receive data, i.e. the push listener is running
+	 * and the path of the channel is routed to it.
+	 * (ra implementation specific)
+	 *
+	 * @param config Configuration of the XI inbound channel in push mode
+	 * @return Port of the push listener or -1 if the channel cannot receive data
+	 **/      
+	int getPushPort(XIInboundChannelConfig config) {
+		XIPushListener listener = pushListener;
+		if ((listener == null) || (!listener.isRunning()) || (!listener.isRouted(config.getPushPath(), config.getChannelID())))
+			return -1;
+		return listener.getPort();
+	}
+
+	/**
+	 * 
+	 * Returns the factor the poll intervals are stretched with while the XI AF is saturated.
+	 * (ra implementation specific)
+	 *
+	 * @return Throttle factor, 1 if the polling is not throttled
+	 **/      
+	int getThrottleFactor() {
+		return dispatchMonitor.getThrottleFactor();
+	}
+
+	/**
+	 * 
+	 * Returns the average time the XI AF needed to take over a polled message recently.
+	 * (ra implementation specific)
+	 *
+	 * @return Average dispatch latency in milliseconds
+	 **/      
+	long getDispatchLatency() {
+		return dispatchMonitor.getAverageLatency();
+	}
+
+	/**
+	 * 
+	 * When the XI CPA Cache triggers a channel update for an inbound channel
+	 * the HTTP client of the channel is rebuilt if its proxy settings were changed.
+	 * Since the endpoint might have been changed the next poll fetches the complete content.
+	 * A paginated run in progress is dropped, its position might not fit to the new paging settings.
+	 * (ra implementation specific)
+	 *
+	 * @param config Validated configuration of the updated XI inbound channel
+	 **/      
+	void updateInboundChannel(XIInboundChannelConfig config) {
+		final String SIGNATURE = "updateInboundChannel(XIInboundChannelConfig config)";
+		TRACE.entering(SIGNATURE, new Object[] {config});
+		String channelID = config.getChannelID();
+		httpClients.update(channelID, config.isUseProxy(), config.getProxyHost(), config.getProxyPort(), config.getProxyUser(), config.getProxyPwd());
+		pollStates.remove(channelID);
+		resetWatermarkStore(channelID);
+		if (statusReporter != null)
+			statusReporter.remove(channelID);
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * 
+	 * When the XI CPA Cache triggers a channel remove for an inbound channel
+	 * the HTTP client and the open connections of the channel are released.
+	 * A paginated run in progress is dropped.
+	 * (ra implementation specific)
+	 *
+	 * @param channelID XI channel ID of the removed inbound channel
+	 **/      
+	void releaseInboundChannel(String channelID) {
+		final String SIGNATURE = "releaseInboundChannel(String channelID)";
+		TRACE.entering(SIGNATURE, new Object[] {channelID});
+		httpClients.remove(channelID);
+		pollStates.remove(channelID);
+		resetWatermarkStore(channelID);
+		if (statusReporter != null)
+			statusReporter.remove(channelID);
+		TRACE.exiting(SIGNATURE);
+	}
+
+	private void resetWatermarkStore(String channelID) {
+		final String SIGNATURE = "resetWatermarkStore(String channelID)";
+		if (watermarkStore == null)
+			return;
+		try {
+			watermarkStore.reset(channelID);
+		} catch (IOException e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Paging position of channel {0} cannot be reset. Reason: {1}", new Object[] {channelID, e.getMessage()});
+		}
+	}
+
+	/**
+	 * 
+	 * When the XI CPA Cache triggers a channel update or remove
+	 * the cached channel object and binding of the channel are dropped.
+	 * (ra implementation specific)
+	 *
+	 * @param channelID XI channel ID of the updated or removed channel
+	 **/      
+	void invalidateChannel(String channelID) {
+		final String SIGNATURE = "invalidateChannel(String channelID)";
+		TRACE.entering(SIGNATURE, new Object[] {channelID});
+		cpaCache.invalidate(channelID);
+		synchronized (fileCaches) {
+			fileCaches.remove(channelID);
+		}
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Returns the file content cache of an outbound channel. The cache is created with the first request
+	 * and dropped when the channel is updated or removed.
+	 * (ra implementation specific)
+	 * @param config Configuration of the XI outbound channel
+	 * @return File content cache of the channel or null if the channel does not cache the retrieved files
+	 */
+	XIFileContentCache getFileCache(XIOutboundChannelConfig config) {
+		if (config.getFileCacheSize() <= 0)
+			return null;
+		synchronized (fileCaches) {
+			XIFileContentCache cache = (XIFileContentCache) fileCaches.get(config.getChannelID());
+			if ((cache == null) || (cache.getMaxBytes() != config.getFileCacheSize())) {
+				cache = new XIFileContentCache(config.getFileCacheSize());
+				fileCaches.put(config.getChannelID(), cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Returns the worker pool that reads the files of multi-file requests in parallel
+	 * (ra implementation specific)
+	 * @return Worker pool or null if the MCF is not started
+	 */
+	XIWorkerPool getFileReadPool() {
+		return fileReadPool;
+	}
+
+	/**
+	 * Returns the cache of the channel objects and bindings
+	 * (ra implementation specific)
+	 * @return CPA cache of this MCF
+	 */
+	XICPACache getCPACache() {
+		return cpaCache;
+	}
+
 	/**
 	 * 
 	 * If a ManagedConnection is destroyed by the JCA container it reports this to its 
@@ -685,7 +1009,16 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 			SPIManagedConnectionFactory other = (SPIManagedConnectionFactory) obj;
 			if ( (adapterNamespace.equals(other.getAdapterNamespace())) &&
 				 (adapterType.equals(other.getAdapterType())) &&
-				 (addressMode.equals(other.getAddressMode())))
+				 (addressMode.equals(other.getAddressMode())) &&
+				 (maxPollingThreads == other.maxPollingThreads) &&
+				 ((watermarkFile == null) ? (other.watermarkFile == null) : watermarkFile.equals(other.watermarkFile)) &&
+				 (dispatchLatencyThreshold == other.dispatchLatencyThreshold) &&
+				 (maxThrottleFactor == other.maxThrottleFactor) &&
+				 (pushBindAddress.equals(other.pushBindAddress)) &&
+				 (pushListenerPort == other.pushListenerPort) &&
+				 (pushQueueCapacity == other.pushQueueCapacity) &&
+				 (fileMapThreshold == other.fileMapThreshold) &&
+				 (maxFileReadThreads == other.maxFileReadThreads))
 				equal = true;
 		}
 		TRACE.exiting(SIGNATURE);
@@ -706,7 +1039,7 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 		final String SIGNATURE = "hashCode()";
 		TRACE.entering(SIGNATURE);
 		int hash = 0;
-		String propset = adapterNamespace + adapterType + addressMode;
+		String propset = adapterNamespace + adapterType + addressMode + maxPollingThreads + watermarkFile + dispatchLatencyThreshold + maxThrottleFactor + pushBindAddress + pushListenerPort + pushQueueCapacity + fileMapThreshold + maxFileReadThreads;
 		hash = propset.hashCode();
 		TRACE.exiting(SIGNATURE);
 		return hash;
@@ -766,6 +1099,44 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 
 			try {
 				threadStatus = TH_STARTED;
+				// The worker threads must be available before the polling thread hands over the first channel
+				workerPool = new XIWorkerPool(msRes, "Inbound Worker", maxPollingThreads, WORKER_QUEUE_CAPACITY);
+				workerPool.start();
+				// Without this pool the files of multi-file requests are read one after the other by the request thread
+				fileReadPool = new XIWorkerPool(msRes, "File Reader", maxFileReadThreads, FILE_READ_QUEUE_CAPACITY);
+				try {
+					fileReadPool.start();
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot start the file reader threads. Files are read sequentially. Reason: {0}", new Object[] {e.getMessage()});
+					fileReadPool = null;
+				}
+				if (pushListenerPort > 0) {
+					// Channels in push mode do not receive data if the port is not available, the polled channels are not affected
+					pushListener = new XIPushListener(msRes, workerPool, new XIPushListener.RequestHandler() {
+						public boolean handle(String channelID, byte[] content, String contentType) throws Exception {
+							return receivePushedContent(channelID, content, contentType);
+						}
+					}, pushBindAddress, pushListenerPort, pushQueueCapacity, MAX_PUSH_SIZE);
+					try {
+						pushListener.start();
+					} catch (Exception e) {
+						TRACE.catching(SIGNATURE, e);
+						TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot start the push listener on port {0}. Channels in push mode do not receive data. Reason: {1}", 
+							new Object[] {Integer.toString(pushListenerPort), e.getMessage()});
+						pushListener = null;
+					}
+				}
+				tokenCache = new XITokenCache(workerPool);
+				dispatchMonitor = new XIDispatchMonitor(dispatchLatencyThreshold, maxThrottleFactor, THROTTLE_ADJUST_INTERVAL);
+				scheduler.setThrottleFactor(1);
+				try {
+					watermarkStore = new XIWatermarkStore(watermarkFile);
+				} catch (Exception e) {
+					// Only channels with incremental polling are affected, they report the error when polled
+					TRACE.catching(SIGNATURE, e);
+					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot open watermark store {0}. Incremental polling is not possible. Reason: {1}", new Object[] {watermarkFile, e.getMessage()});
+				}
 				msRes.startRunnable(this);
 				//inboundSimulator.start(); see above
 			}
@@ -798,9 +1169,30 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 			synchronized(this) {
 				// Wake up run() if it is waiting for the next poll interval
 				((Object)this).notify();
+				scheduler.wakeUp();
 				// $JL-WAIT$ The wait time is deterministic
 				wait(waitTime+1000);
 			}
+			// No new pushed requests, then let the workers finish the channels that are queued or being polled right now
+			if (pushListener != null) {
+				pushListener.stop(waitTime);
+				pushListener = null;
+			}
+			if (workerPool != null)
+				workerPool.shutdown(drainTime);
+			if (fileReadPool != null) {
+				fileReadPool.shutdown(drainTime);
+				fileReadPool = null;
+			}
+			if (tokenCache != null)
+				tokenCache.clear();
+			httpClients.clear();
+			circuitBreaker.clear();
+			cpaCache.clear();
+			synchronized (fileCaches) {
+				fileCaches.clear();
+			}
+			moduleProcessorHolder.clear();
 			xIConfiguration.stop();
 		}
 		catch(Exception e) {
@@ -845,7 +1237,7 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 	}
 
 	/**
-	 * Simulates incoming messages in a separate thread.
+	 * Polls the inbound channels in a separate thread. Each channel is processed when its own poll interval has elapsed.
 	 * (ra implementation specific)
 	 */    
 	public void run() {
@@ -864,7 +1256,6 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 			// Wait now till the MCF properties are set that cannot be configured via XI ID
 			boolean notSet = true;
 			int numTry = 0;
-			int pollTime = -1;
 			
 			while ((notSet) && (numTry < propWaitNum)) {
 				if ( (addressMode != null) && (adapterType != null) && (adapterNamespace != null) )
@@ -896,6 +1287,9 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 			}
 			// CS_MPLOOK END
 			
+			// The adapter type and namespace are known now, hence the channel status can be reported
+			statusReporter = new XIStatusReporter(adapterNamespace, adapterType, waitTime, STATUS_HEARTBEAT);
+			
 			// Create the helper object that manages the XI channel information
 			if (xIConfiguration == null) {
 				try {
@@ -909,158 +1303,62 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 				}
 			}
 			
-			while (threadStatus == TH_STARTED) {
-	
+			// Schedule all valid inbound channels that are known so far. Later changes are propagated by XIConfiguration
+			if (threadStatus == TH_STARTED) {
 				try {
-		            LinkedList channels = xIConfiguration.getCopy(Direction.INBOUND);
-					//TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Got {0} inbound channels.", new Object[] {new Integer(channels.size())}); 
-					 
-					for (int i = 0; i < channels.size(); i++) {
-						Channel channel = (Channel) channels.get(i);
-						/*try {
-							
-							// The old "adapterStatus" check was removed with introduction of AAM which uses start/stop and channelAdded/Remove 
-							// to start and stop a channel
-							
-							// Try to read the configuration parameter from CPA
-							// If one parameter cannot be read, set a sensible default but try to read the rest to ensure backward compatibility
-							String directory = null;
-							String name = null;
-							String processMode = null;
-							String qos = null;
-							String psec = null;
-							String pmsec = null;
-							String raiseError = null;
-							String channelAddressMode = null;
-							boolean set_asma = false;
-							try {
-								directory = channel.getValueAsString("fileInDir");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								name = channel.getValueAsString("fileInName");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								processMode = channel.getValueAsString("processMode");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								qos = channel.getValueAsString("qos");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								psec = channel.getValueAsString("filePollInterval");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								pmsec = channel.getValueAsString("filePollIntervalMsecs");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								raiseError = channel.getValueAsString("raiseError");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								channelAddressMode = channel.getValueAsString("channelAddressMode");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							try {
-								set_asma = channel.getValueAsBoolean("enableDynConfigSender");
-								if (set_asma == true) 
-									set_asma = channel.getValueAsBoolean("dynConfigJCAChannelID");
-							} catch (Exception e) {
-								TRACE.catching(SIGNATURE, e);
-							}
-							// The smallest poll interval will be choosen for all channels (simplification for this sample only!)
-							int ptime = 0;
-							if ((psec != null) && (psec.length() > 0))
-								ptime = Integer.valueOf(psec).intValue()*1000;
-							if ((pmsec != null) && (pmsec.length() > 0))
-								ptime = ptime + Integer.valueOf(pmsec).intValue();
-							if ( (pollTime < 0) || (ptime < pollTime))
-								pollTime = ptime;
-							
-							if ((directory == null) || (directory.length() == 0)) {
-								TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine input file directory. Take default: " + IN_DIR);
-								directory = IN_DIR;
-							}	
-	
-							if ((name == null) || (name.length() == 0)) {
-								TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine input file prefix. Take default: " + IN_NAME);
-								name = IN_NAME;
-							}	
-	
-							if ((processMode == null) || (processMode.length() == 0)) {
-								TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine processing mode. Take default: " + PM_TEST);
-								processMode = PM_TEST;
-							}	
-	
-							if ((qos == null) || (qos.length() == 0)) {
-								TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine QOS. Take default: " + QOS_EO);
-								qos = QOS_EO;
-							}	
-	
-							if ((raiseError == null) || (raiseError.length() == 0)) {
-								TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine error raise condition. Take default: " + ERR_NONE);
-								raiseError = ERR_NONE;
-							}	
-	
-							if ((channelAddressMode == null) || (channelAddressMode.length() == 0)) {
-								TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine address mode. Take default from JCA property: " + addressMode);
-								channelAddressMode = addressMode;
-							}	
-	
-							String completeName = directory + "/" + name;
-							
-							// TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel " + channel.getChannelName() + " processes file " + completeName);
-							sendMessageFromFile(completeName, channel, processMode, qos, raiseError, channelAddressMode, set_asma);
-						} catch (Exception e) {
-							TRACE.catching(SIGNATURE, e);
-							TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot send message to channel {0}. Received exception: {1}", 
-							    new Object[] {channel.getObjectId(), e.getMessage()});
-						}*/
-						
-						// Retrieve the polling interval
-						int pollInterval = channel.getValueAsInt("pollInterval");
-						pollTime = pollInterval*1000;
-						// Update the channel processing status
-						MonitoringManager mm = MonitoringManagerFactory.getInstance().getMonitoringManager();
-						ProcessContext pc = ProcessContextFactory.getInstance().createProcessContext(ProcessContextFactory.getParamSet().channel(channel));
-						mm.reportProcessStatus(this.adapterNamespace, this.adapterType, ChannelDirection.SENDER , ProcessState.OK, "Start of processing", pc);
-						
-						// Execute channel processing
-						runChannel(channel);
-						// Update the channel processing status
-						mm.reportProcessStatus(this.adapterNamespace, this.adapterType, ChannelDirection.SENDER , ProcessState.OK, "End of processing", pc);
-						mm.reportProcessStatus(this.adapterNamespace, this.adapterType, ChannelDirection.SENDER , ProcessState.OK, "Next cycle in " + pollInterval + " seconds", pc);
-					}			
+					scheduler.clear();
+					if (pushListener != null)
+						pushListener.clearRoutes();
+					LinkedList configs = xIConfiguration.getInboundConfigs();
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Got {0} valid inbound channels.", new Object[] {new Integer(configs.size())});
+					for (int i = 0; i < configs.size(); i++)
+						scheduleInboundChannel((XIInboundChannelConfig) configs.get(i));
 				} catch (Exception e) {
 					TRACE.catching(SIGNATURE, e);
 					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot access inbound channel configuration. Received exception: " + e.getMessage());
 				}
-	
-				try {
-					synchronized(this) {
-					   if (pollTime <= 0)    // No sender channel or huge poll interval is configured => take default poll interval 
-					   		wait(waitTime);
-					   else					 // At least one sender channel is configured => take smallest configured poll interval
-					   		wait(pollTime);
+			}
+
+			long lastIdleCheck = System.currentTimeMillis();
+			while (threadStatus == TH_STARTED) {
+
+				// Hand over all channels whose poll interval has elapsed to the worker pool. Each channel is planned individually.
+				LinkedList dueChannels = scheduler.getDueChannels();
+				for (int i = 0; i < dueChannels.size(); i++) {
+					final XIInboundChannelConfig config = (XIInboundChannelConfig) dueChannels.get(i);
+					boolean queued = workerPool.submit(config.getChannelID(), new Runnable() {
+						public void run() {
+							pollChannel(config);
+						}
+					});
+					if (!queued) {
+						// Pool is saturated or the channel is still in flight, try again in the next poll interval
+						TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel {0} cannot be handed over to the worker pool and is skipped in this cycle. Pool status: {1}", 
+							new Object[] {config.getChannelID(), workerPool.toString()});
+						scheduler.completed(config.getChannelID());
 					}
+				}
+
+				// Push the channel status noted by the workers, the workers do not wait for the AAM monitor
+				statusReporter.flushIfDue();
+				// Close the connections of channels that were not polled for a while
+				if (System.currentTimeMillis() - lastIdleCheck >= HTTP_IDLE_CHECK_INTERVAL) {
+					httpClients.closeIdleConnections(HTTP_IDLE_TIMEOUT);
+					lastIdleCheck = System.currentTimeMillis();
+				}
+				// Slow down the polling while the XI AF is saturated and speed it up again when it recovers
+				scheduler.setThrottleFactor(dispatchMonitor.evaluate());
+
+				try {
+					// Wait till the next channel is due. Wake up periodically to check the thread status.
+					scheduler.waitForDueChannels(waitTime);
 				} catch (InterruptedException e1) {
 					TRACE.catching(SIGNATURE, e1);
 					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Inbound thread stopped. Received exception during wait period: " + e1.getMessage());
 					threadStatus = TH_STOPPED;
 				}
 			}
+			statusReporter.flush();
 			// CS_MCFTNAMERESET START
 		} finally {
 			Thread.currentThread().setName(oldThreadName);
@@ -1069,147 +1367,747 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 		}
 	}
 	
-	private void runChannel(Channel channel) throws Exception {
-		// Retrieve the channel configuration values
-		String urlEndpoint = channel.getValueAsString("urlEndpoint");
-		boolean useProxy = channel.getValueAsBoolean("useProxy");
-		String proxyhost = channel.getValueAsString("proxyhost");
-		int proxyport = channel.getValueAsInt("proxyport");
-		String proxyuser = channel.getValueAsString("proxyuser");
-		String proxypwd = channel.getValueAsString("proxypwd");
-		String tokenEndpoint = channel.getValueAsString("tokenEndpoint");
-		String consumerKey = channel.getValueAsString("consumerKey");
-		String user = channel.getValueAsString("user");
-		String pwd = channel.getValueAsString("pwd");
-		
-		// Update channel processing status
-		MonitoringManager mm = MonitoringManagerFactory.getInstance().getMonitoringManager();
-		ProcessContext pc = ProcessContextFactory.getInstance().createProcessContext(ProcessContextFactory.getParamSet().channel(channel));
-		mm.reportProcessStatus(this.adapterNamespace, this.adapterType, ChannelDirection.SENDER , ProcessState.OK, "Polling endpoint: " + urlEndpoint, pc);
-		
-		// Execute the HTTP polling, then create & dispatch the message to the Adapter Framework
-		String output = execHTTPGet(tokenEndpoint, urlEndpoint, user, pwd, consumerKey, useProxy, proxyhost, proxyport, proxyuser, proxypwd);
-		createMessage(output.getBytes("UTF-8"), channel);		
-	}
-	
-	private String execHTTPGet(String tokenEndpoint, String urlEndpoint, String user, String pwd, 
-			String consumerKey, boolean useProxy, String proxyhost, int proxyport, 
-			String proxyuser, String proxypwd) throws Exception {
-		
-		HttpClient client = new HttpClient();
-		// Set proxy details
-		if(useProxy) {
-			HostConfiguration hostConfig = new HostConfiguration();
-
-			hostConfig.setProxy(proxyhost, proxyport);
-			client.setHostConfiguration(hostConfig);
-
-			AuthScope ourScope = new AuthScope(proxyhost, proxyport, "realm");
-			UserPassCredentials userPass = new UserPassCredentials(proxyuser, proxypwd);
-			client.getState().setCredentials(ourScope, userPass);
-		}
-		
-		// Retrieve the OAuth token from the token endpoint 
-		GET httpGet = new GET(tokenEndpoint);
-		String b64encodedLogin = DatatypeConverter.printBase64Binary((user + ":" + pwd).getBytes());
-		httpGet.setRequestHeader("Authorization", "Basic " + b64encodedLogin);
-		httpGet.setRequestHeader("X-ConsumerKey", consumerKey);
-		String token = null;
-		try {
-			client.executeMethod(httpGet);
-			// Parse the response and retrieve the value of the token
-			ConversionDOMInput domIn = new ConversionDOMInput(httpGet.getResponseBodyAsString());
-			token = domIn.evaluateXPathToString("/Access_Token/Token");
-		} finally {
-			httpGet.releaseConnection();
-		}
-		
-		// Execute the call to the target URL using the OAuth 2.0 token for authorization
-		GET httpGet2 = new GET(urlEndpoint);
-		httpGet2.setRequestHeader("Authorization", "OAuth " + token);
-		try {
-			client.executeMethod(httpGet2);
-			return httpGet2.getResponseBodyAsString();
-		} finally { 
-			httpGet2.releaseConnection();
-		}
-	}
-	
-	private void createMessage(byte[] content, Channel channel) {
+	/**
+	 * Executes one poll cycle of an inbound channel and plans its next run.
+	 * Errors are reported per channel so that a failing channel does not affect the others.
+	 * (ra implementation specific)
+	 * 
+	 * @param config Configuration of the inbound channel that is due
+	 */
+	private void pollChannel(XIInboundChannelConfig config) {
+		final String SIGNATURE = "pollChannel(XIInboundChannelConfig config)";
+		Channel channel = config.getChannel();
+		String channelID = config.getChannelID();
+		boolean newData = false;
 		try {
-			// Retrieve the binding details from the channel
-			Binding binding = CPAFactory.getInstance().getLookupManager().getBindingByChannelId(channel.getObjectId());
-			String action = binding.getActionName();
-			String actionNS = binding.getActionNamespace(); 
-			String fromParty = binding.getFromParty();
-			String fromService = binding.getFromService();
-			String toParty = binding.getToParty();
-			String toService = binding.getToService();
-
-			// Normalize wildcards and null's to "non-specified" address value
-			if ( (fromParty == null) || (fromParty.equals("*")) )
-				fromParty = new String("");
-			if ( (fromService == null) || (fromService.equals("*")) )
-				fromService = new String("");
-			if ( (toParty == null) || (toParty.equals("*")) )
-				toParty = new String("");
-			if ( (toService == null) || (toService.equals("*")) )
-				toService = new String("");
-			if ( (action == null) || (action.equals("*")) )
-				action = new String(""); 
-			if ( (actionNS == null) || (actionNS.equals("*")) )
-				actionNS = new String(""); 
-
-			// Create the XI message and populate the headers and content
-			if(this.mf == null) {
-				this.mf = new XIMessageFactoryImpl(channel.getAdapterType(), channel.getAdapterNamespace());
-			}
-			Message msg = this.mf.createMessageRecord(fromParty, toParty, fromService, toService, action, actionNS);
-			msg.setDeliverySemantics(DeliverySemantics.ExactlyOnce);
-
-			XMLPayload xp = msg.createXMLPayload();
-			xp.setContent(content);
-			xp.setContentType("application/xml");				
-			xp.setName("MainDocument");
-			xp.setDescription("EQ Adapter Polling Output");
-			msg.setDocument(xp);
-
-			// Set the message into the module for processing by the module processor
-			ModuleData md = new ModuleData();
-			md.setPrincipalData(msg);
-
-			TransactionTicket txTicket = null;
-			try {
-				txTicket = TxManager.required();
-
-				MessageKey amk = new MessageKey(msg.getMessageId(), MessageDirection.OUTBOUND);
-				md.setSupplementalData("audit.key", amk);
-				audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Asynchronous message was polled and will be forwarded to the XI AF MS now.");
-				audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Name of the polled URL: {0}.", new Object[] {channel.getValueAsString("urlEndpoint")});
-				audit.addAuditLogEntry(amk, AuditLogStatus.WARNING, "Demo: This is a warning audit log message");
-				// And flush them into the DB
-				audit.flushAuditLogEntries(amk);
+			/*try {
+				
+				// The old "adapterStatus" check was removed with introduction of AAM which uses start/stop and channelAdded/Remove 
+				// to start and stop a channel
+				
+				// Try to read the configuration parameter from CPA
+				// If one parameter cannot be read, set a sensible default but try to read the rest to ensure backward compatibility
+				String directory = null;
+				String name = null;
+				String processMode = null;
+				String qos = null;
+				String psec = null;
+				String pmsec = null;
+				String raiseError = null;
+				String channelAddressMode = null;
+				boolean set_asma = false;
+				try {
+					directory = channel.getValueAsString("fileInDir");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					name = channel.getValueAsString("fileInName");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					processMode = channel.getValueAsString("processMode");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					qos = channel.getValueAsString("qos");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					psec = channel.getValueAsString("filePollInterval");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					pmsec = channel.getValueAsString("filePollIntervalMsecs");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					raiseError = channel.getValueAsString("raiseError");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					channelAddressMode = channel.getValueAsString("channelAddressMode");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				try {
+					set_asma = channel.getValueAsBoolean("enableDynConfigSender");
+					if (set_asma == true) 
+						set_asma = channel.getValueAsBoolean("dynConfigJCAChannelID");
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+				}
+				// The smallest poll interval will be choosen for all channels (simplification for this sample only!)
+				int ptime = 0;
+				if ((psec != null) && (psec.length() > 0))
+					ptime = Integer.valueOf(psec).intValue()*1000;
+				if ((pmsec != null) && (pmsec.length() > 0))
+					ptime = ptime + Integer.valueOf(pmsec).intValue();
+				if ( (pollTime < 0) || (ptime < pollTime))
+					pollTime = ptime;
 				
-				// Process the module
-				ModuleProcessorFactory.getModuleProcessor(true, 1, 1000).process(channel.getObjectId(), md);
-				// Update the channel status
-				MonitoringManager mm = MonitoringManagerFactory.getInstance().getMonitoringManager();
-				ProcessContext pc = ProcessContextFactory.getInstance().createProcessContext(ProcessContextFactory.getParamSet().channel(channel).message(msg));
-				mm.reportProcessStatus(this.adapterNamespace, this.adapterType, ChannelDirection.SENDER , ProcessState.OK, "Message sent to AF", pc);		
+				if ((directory == null) || (directory.length() == 0)) {
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine input file directory. Take default: " + IN_DIR);
+					directory = IN_DIR;
+				}	
+		
+				if ((name == null) || (name.length() == 0)) {
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine input file prefix. Take default: " + IN_NAME);
+					name = IN_NAME;
+				}	
+		
+				if ((processMode == null) || (processMode.length() == 0)) {
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine processing mode. Take default: " + PM_TEST);
+					processMode = PM_TEST;
+				}	
+		
+				if ((qos == null) || (qos.length() == 0)) {
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine QOS. Take default: " + QOS_EO);
+					qos = QOS_EO;
+				}	
+		
+				if ((raiseError == null) || (raiseError.length() == 0)) {
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine error raise condition. Take default: " + ERR_NONE);
+					raiseError = ERR_NONE;
+				}	
+		
+				if ((channelAddressMode == null) || (channelAddressMode.length() == 0)) {
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine address mode. Take default from JCA property: " + addressMode);
+					channelAddressMode = addressMode;
+				}	
+		
+				String completeName = directory + "/" + name;
+				
+				// TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel " + channel.getChannelName() + " processes file " + completeName);
+				sendMessageFromFile(completeName, channel, processMode, qos, raiseError, channelAddressMode, set_asma);
+			} catch (Exception e) {
+				TRACE.catching(SIGNATURE, e);
+				TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot send message to channel {0}. Received exception: {1}", 
+				    new Object[] {channel.getObjectId(), e.getMessage()});
+			}*/
+
+			// Update the channel processing status
+			statusReporter.report(channel, ProcessState.OK, "Start of processing");
+
+			// Execute channel processing
+			newData = runChannel(config);
+			// Update the channel processing status
+			statusReporter.report(channel, ProcessState.OK, "End of processing");
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Cannot process inbound channel {0}. Received exception: {1}", new Object[] {channelID, e.getMessage()});
+		} finally {
+			// Plan the next run. If an endpoint of the channel is down, wait till its circuit breaker lets a request through.
+			// Otherwise, with adaptive polling the interval depends on whether new data was received.
+			long retryTime = getEndpointRetryTime(config);
+			if (retryTime > 0) {
+				long retryDelay = Math.max(retryTime - System.currentTimeMillis(), MIN_RETRY_DELAY);
+				scheduler.completed(channelID, retryDelay);
+				statusReporter.report(channel, ProcessState.ERROR, "Endpoint not reachable. Next attempt in " + (retryDelay / 1000) + " seconds");
+			} else {
+				long pollInterval = scheduler.completed(channelID, newData);
+				if (pollInterval >= 0)
+					statusReporter.report(channel, ProcessState.OK, "Next cycle in " + (pollInterval / 1000) + " seconds");
+			}
+		}
+	}
+	
+	/**
+	 * Sends a content that was pushed to a channel in push mode. It is called by a worker of the
+	 * push listener, the listener answers the request with 202 if true is returned, i.e. when the
+	 * messages were committed.
+	 * (ra implementation specific)
+	 * 
+	 * @return true if all messages of the content were sent
+	 */
+	private boolean receivePushedContent(String channelID, byte[] content, String contentType) throws Exception {
+		final String SIGNATURE = "receivePushedContent(String channelID, byte[] content, String contentType)";
+		XIConfiguration configuration = xIConfiguration;
+		XIInboundChannelConfig config = (configuration != null) ? configuration.getInboundConfig(channelID) : null;
+		if ((config == null) || (!config.isPushMode()))
+			throw new ResourceException("Channel " + channelID + " does not receive pushed data");
+		Channel channel = config.getChannel();
+		statusReporter.report(channel, ProcessState.OK, "Pushed content received");
+		
+		// A content that was pushed again (e.g. because the response was lost) is identified by its digest
+		String extMsgId = null;
+		if (config.isDuplicateCheck()) {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			extMsgId = channelID + ":" + DatatypeConverter.printHexBinary(md.digest(content));
+			String xiMsgId = duplicateCache.getMappedId(extMsgId);
+			if (xiMsgId != null) {
+				TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Pushed content was sent already with message {0}. It will be ignored.", new Object[] {xiMsgId});
+				statusReporter.report(channel, ProcessState.OK, "Duplicate content ignored");
+				return true;
+			}
+		}
+		if (!sendContent(content, contentType, extMsgId, config)) {
+			statusReporter.report(channel, ProcessState.ERROR, "Pushed content could not be sent");
+			return false;
+		}
+		statusReporter.report(channel, ProcessState.OK, "Pushed content sent");
+		return true;
+	}
+	
+	private boolean runChannel(XIInboundChannelConfig config) throws Exception {
+		final String SIGNATURE = "runChannel(XIInboundChannelConfig config)";
+		// The channel configuration was read and validated when the channel was added or updated
+		Channel channel = config.getChannel();
+		String urlEndpoint = config.getUrlEndpoint();
+		
+		// Update channel processing status
+		statusReporter.report(channel, ProcessState.OK, "Polling endpoint: " + urlEndpoint);
+		
+		// Incremental polling: fetch only the data after the watermark, page by page
+		if (config.isIncremental())
+			return pollPages(config);
+		
+		// Execute the HTTP polling, then create & dispatch the message to the Adapter Framework
+		// The response body is handed over to the payload as is, without a String conversion
+		XIChannelPollState pollState = getPollState(channel.getObjectId());
+		XIHttpResponse response = execHTTPGet(config, urlEndpoint, pollState);
+		
+		// Error responses (e.g. 403, 404, 429) are neither sent as message nor count as new data for the adaptive polling
+		int status = response.getStatusCode();
+		if (!response.isNotModified() && ((status < 200) || (status >= 300)))
+			throw new Exception("Endpoint " + urlEndpoint + " cannot be polled. HTTP status: " + status);
+		
+		// Nothing to send if the content was not changed since the last poll
+		if (response.isNotModified()) {
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Content of {0} is unchanged. No message is sent.", new Object[] {urlEndpoint});
+			statusReporter.report(channel, ProcessState.OK, "Content unchanged since last poll");
+			return false;
+		}
+		
+		// Nothing to send if the endpoint has no data
+		if (response.getContent().length == 0) {
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "{0} returned no content. No message is sent.", new Object[] {urlEndpoint});
+			statusReporter.report(channel, ProcessState.OK, "No content received");
+			return false;
+		}
+		
+		// Drop contents that were sent already. The content is identified by the channel and the digest of the response body.
+		String extMsgId = null;
+		if (config.isDuplicateCheck() && (response.getDigest() != null)) {
+			extMsgId = channel.getObjectId() + ":" + response.getDigest();
+			String xiMsgId = duplicateCache.getMappedId(extMsgId);
+			if (xiMsgId != null) {
+				TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Content of {0} was sent already with message {1}. It will be ignored.", new Object[] {urlEndpoint, xiMsgId});
+				statusReporter.report(channel, ProcessState.OK, "Duplicate content ignored");
+				pollState.update(response);
+				return false;
+			}
+		}
+		
+		// Remember the validators only if the message was sent, otherwise the content is fetched again in the next poll
+		if (!sendContent(response.getContent(), response.getContentType(), extMsgId, config))
+			return false;
+		pollState.update(response);
+		return true;
+	}
+	
+	/**
+	 * Polls the pages of an endpoint with incremental polling. The URL may contain the placeholders
+	 * {watermark}, {offset}, {limit} and {pageToken}. Each page is sent as its own message. The position
+	 * is persisted after each page was committed, hence the next poll (or a restarted adapter) continues
+	 * with the first page that was not sent yet. The newest watermark of a run replaces the watermark
+	 * when the last page of the run was sent.
+	 * @return true if at least one page was sent
+	 */
+	private boolean pollPages(XIInboundChannelConfig config) throws Exception {
+		final String SIGNATURE = "pollPages(XIInboundChannelConfig config)";
+		Channel channel = config.getChannel();
+		String channelID = config.getChannelID();
+		if (watermarkStore == null)
+			throw new Exception("Watermark store " + watermarkFile + " is not available");
+		
+		// The paging settings were validated when the channel was added or updated
+		String pagingMode = config.getPagingMode();
+		XIXPathEvaluator watermarkEvaluator = config.getWatermarkEvaluator();
+		XIXPathEvaluator nextPageTokenEvaluator = config.getNextPageTokenEvaluator();
+		String initialWatermark = config.getInitialWatermark();
+		int pageSize = config.getPageSize();
+		int maxPages = config.getMaxPagesPerPoll();
+		
+		// Continue where the last poll stopped
+		String watermark = watermarkStore.getWatermark(channelID);
+		if (watermark == null)
+			watermark = (initialWatermark != null) ? initialWatermark : "";
+		String cursor = watermarkStore.getCursor(channelID);
+		String pendingWatermark = watermarkStore.getPendingWatermark(channelID);
+		if ((cursor == null) && pagingMode.equals(XIInboundChannelConfig.PAGING_OFFSET))
+			cursor = "0";
+		
+		boolean sent = false;
+		for (int page = 0; page < maxPages; page++) {
+			String pageUrl = config.getUrlEndpoint();
+			pageUrl = replace(pageUrl, "{watermark}", URLEncoder.encode(watermark, "UTF-8"));
+			pageUrl = replace(pageUrl, "{offset}", (cursor != null) ? cursor : "0");
+			pageUrl = replace(pageUrl, "{limit}", Integer.toString(pageSize));
+			pageUrl = replace(pageUrl, "{pageToken}", (cursor != null) ? URLEncoder.encode(cursor, "UTF-8") : "");
+			
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel {0} polls page {1}: {2}", new Object[] {channelID, Integer.toString(page), pageUrl});
+			XIHttpResponse response = execHTTPGet(config, pageUrl, null);
+			if (response.getStatusCode() >= 400)
+				throw new Exception("Page " + pageUrl + " cannot be polled. HTTP status: " + response.getStatusCode());
+			
+			// No more data: the run is finished
+			if ((response.getStatusCode() == 204) || (response.getContent().length == 0)) {
+				watermarkStore.commitPage(channelID, null, pendingWatermark);
+				break;
+			}
+			// Many endpoints return an empty envelope (e.g. <items/>) after the last page, it is not sent.
+			// With the record XPath of the channel a page with less than pageSize records is the last one.
+			int records = config.getPageRecordEvaluator().evaluateAll(new ByteArrayInputStream(response.getContent()), pageSize).size();
+			if (records == 0) {
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Page {0} contains no records. The run is finished.", new Object[] {pageUrl});
+				watermarkStore.commitPage(channelID, null, pendingWatermark);
+				break;
+			}
+			boolean lastPage = config.isPageRecordXPathSet() && (records < pageSize);
+			
+			// Determine the position of the next page and the newest watermark
+			String nextCursor = null;
+			if (watermarkEvaluator != null) {
+				String pageWatermark = watermarkEvaluator.evaluate(response.getContent());
+				if ((pageWatermark != null) && (pageWatermark.length() > 0))
+					pendingWatermark = pageWatermark;
+			}
+			if (lastPage)
+				nextCursor = null;
+			else if (pagingMode.equals(XIInboundChannelConfig.PAGING_OFFSET))
+				nextCursor = Long.toString(Long.parseLong(cursor) + pageSize);
+			else if (pagingMode.equals(XIInboundChannelConfig.PAGING_TOKEN) && (nextPageTokenEvaluator != null)) {
+				nextCursor = nextPageTokenEvaluator.evaluate(response.getContent());
+				if ((nextCursor != null) && (nextCursor.length() == 0))
+					nextCursor = null;
+			}
+			
+			// Send the page unless it was sent already, then persist the position
+			String extMsgId = null;
+			String xiMsgId = null;
+			if (config.isDuplicateCheck() && (response.getDigest() != null)) {
+				extMsgId = channelID + ":" + response.getDigest();
+				xiMsgId = duplicateCache.getMappedId(extMsgId);
+			}
+			if (xiMsgId != null)
+				TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Page {0} was sent already with message {1}. It will be ignored.", new Object[] {pageUrl, xiMsgId});
+			else if (sendContent(response.getContent(), response.getContentType(), extMsgId, config))
+				sent = true;
+			else {
+				// The page is polled again in the next poll
+				statusReporter.report(channel, ProcessState.OK, "Page could not be sent, retry in next poll");
+				return sent;
+			}
+			watermarkStore.commitPage(channelID, nextCursor, pendingWatermark);
+			if (nextCursor == null)
+				break;
+			cursor = nextCursor;
+		}
+		statusReporter.report(channel, ProcessState.OK, "Incremental polling finished, watermark: " + watermarkStore.getWatermark(channelID));
+		return sent;
+	}
+	
+	/**
+	 * Sends a polled content to the XI AF. If the channel defines a record element the content is
+	 * split into several messages, otherwise it is sent as one message.
+	 * @return true if all messages were sent
+	 */
+	private boolean sendContent(byte[] content, String contentType, final String extMsgId, final XIInboundChannelConfig config) throws Exception {
+		final String SIGNATURE = "sendContent(byte[] content, String contentType, String extMsgId, XIInboundChannelConfig config)";
+		Channel channel = config.getChannel();
+		String splitRecord = config.getSplitRecord();
+		if (splitRecord == null)
+			return createMessage(content, contentType, extMsgId, null, config);
+		final String sequenceId = config.getSequenceId();
+		
+		// Each part is an own message. With duplicate check the parts are identified by their index,
+		// hence a partly sent content continues with the first part that was not sent yet.
+		// With transaction batching up to batchSize messages are committed together. The parts are produced
+		// by the splitter without waiting, hence a batch is only closed when it is full or the content ends.
+		final int maxBatchSize = config.getTransactionBatchSize();
+		final List batch = new ArrayList(maxBatchSize);
+		final boolean[] failed = new boolean[] {false};
+		final String[] lastPartId = new String[] {null};
+		XIRecordSplitter splitter = new XIRecordSplitter(splitRecord, config.getRecordsPerMessage());
+		int parts = splitter.split(new ByteArrayInputStream(content), new XIRecordSplitter.PartHandler() {
+			public boolean handlePart(byte[] part, int index) throws Exception {
+				String partId = (extMsgId != null) ? extMsgId + ":" + index : null;
+				lastPartId[0] = partId;
+				if ((partId != null) && (duplicateCache.getMappedId(partId) != null))
+					return true;
+				batch.add(new BatchEntry(part, "application/xml", partId, sequenceId));
+				if (batch.size() >= maxBatchSize) {
+					boolean sent = createMessages(batch, config);
+					batch.clear();
+					if (!sent) {
+						failed[0] = true;
+						return false;
+					}
+				}
+				return true;
+			}
+		});
+		// A wrong record name or an error document without records must not pass as sent content
+		if (parts == 0) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Polled content of channel {0} does not contain any record {1}. No message is sent.", new Object[] {channel.getObjectId(), splitRecord});
+			statusReporter.report(channel, ProcessState.ERROR, "Polled content does not contain any record " + splitRecord);
+			return false;
+		}
+		if ((!failed[0]) && (!batch.isEmpty()))
+			failed[0] = !createMessages(batch, config);
+		// All parts are committed: the whole content is a duplicate from now on, hence it is not split again
+		if ((!failed[0]) && (lastPartId[0] != null)) {
+			String xiMsgId = duplicateCache.getMappedId(lastPartId[0]);
+			if (xiMsgId != null)
+				duplicateCache.put(extMsgId, xiMsgId);
+		}
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Polled content of channel {0} was split into {1} messages.", new Object[] {channel.getObjectId(), Integer.toString(parts)});
+		statusReporter.report(channel, ProcessState.OK, "Polled content split into " + parts + " messages");
+		return !failed[0];
+	}
+	
+	private static String replace(String text, String placeholder, String value) {
+		int i = text.indexOf(placeholder);
+		if (i < 0)
+			return text;
+		StringBuffer sb = new StringBuffer(text.length() + value.length());
+		int start = 0;
+		while (i >= 0) {
+			sb.append(text.substring(start, i)).append(value);
+			start = i + placeholder.length();
+			i = text.indexOf(placeholder, start);
+		}
+		sb.append(text.substring(start));
+		return sb.toString();
+	}
+	
+	private XIChannelPollState getPollState(String channelID) {
+		synchronized (pollStates) {
+			XIChannelPollState pollState = (XIChannelPollState) pollStates.get(channelID);
+			if (pollState == null) {
+				pollState = new XIChannelPollState();
+				pollStates.put(channelID, pollState);
+			}
+			return pollState;
+		}
+	}
+	
+	private XIHttpResponse execHTTPGet(final XIInboundChannelConfig config, String urlEndpoint, XIChannelPollState pollState) throws Exception {
+		final String SIGNATURE = "execHTTPGet()";
+		final String tokenEndpoint = config.getTokenEndpoint();
+		final String user = config.getUser();
+		final String pwd = config.getPwd();
+		final String consumerKey = config.getConsumerKey();
+		boolean calculateDigest = config.isDuplicateCheck();
+		
+		// Take the pooled client of the channel, its connections are kept alive between the polls.
+		// The client is leased, hence a proxy change does not shut it down while this poll uses it.
+		final HttpClient client = httpClients.getClient(config.getChannelID(), config.isUseProxy(), config.getProxyHost(), config.getProxyPort(), 
+			config.getProxyUser(), config.getProxyPwd());
+		try {
+			// Take the OAuth token from the token cache. A new token is only requested from the token endpoint
+			// if there is no valid one. The background refresh leases the current client of the channel itself.
+			String tokenKey = XITokenCache.createKey(tokenEndpoint, user, consumerKey);
+			XITokenCache.TokenFetcher fetcher = new XITokenCache.TokenFetcher() {
+				public String fetchToken() throws Exception {
+					HttpClient tokenClient = httpClients.getClient(config.getChannelID(), config.isUseProxy(), config.getProxyHost(), config.getProxyPort(), 
+						config.getProxyUser(), config.getProxyPwd());
+					try {
+						return execTokenRequest(tokenClient, tokenEndpoint, user, pwd, consumerKey);
+					} finally {
+						httpClients.releaseClient(config.getChannelID(), tokenClient);
+					}
+				}
+			};
+			long lifetime = config.getTokenLifetime() * 1000L;
+			String token = tokenCache.getToken(tokenKey, lifetime, fetcher);
+		
+			// Execute the call to the target URL using the OAuth 2.0 token for authorization
+			String host = XICircuitBreaker.getHost(urlEndpoint);
+			GET httpGet2 = createDataRequest(urlEndpoint, token, pollState);
+			try {
+				executeMethod(client, httpGet2, host);
+				if (httpGet2.getStatusCode() != 401)
+					return XIHttpResponse.read(httpGet2, calculateDigest);
+			} finally { 
+				httpGet2.releaseConnection();
+			}
+		
+			// The token was rejected (e.g. revoked or expired earlier than configured), hence retry once with a new token
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Token was rejected by {0}. Retry with a new token.", new Object[] {urlEndpoint});
+			tokenCache.invalidate(tokenKey, token);
+			token = tokenCache.getToken(tokenKey, lifetime, fetcher);
+			GET httpGet3 = createDataRequest(urlEndpoint, token, pollState);
+			try {
+				executeMethod(client, httpGet3, host);
+				// The error body of a rejected request must not be dispatched as business data
+				if (httpGet3.getStatusCode() >= 400)
+					throw new IOException("HTTP " + httpGet3.getStatusCode() + " received from " + urlEndpoint + " after retry with a new token");
+				return XIHttpResponse.read(httpGet3, calculateDigest);
+			} finally { 
+				httpGet3.releaseConnection();
+			}
+		} finally {
+			httpClients.releaseClient(config.getChannelID(), client);
+		}
+	}
+	
+	/**
+	 * Executes a request if the circuit breaker of the host lets it through and reports the result to the breaker.
+	 * Server errors (HTTP 5xx) and rate limiting (HTTP 429) count as failures, hence their response is not processed.
+	 */
+	private void executeMethod(HttpClient client, GET httpGet, String host) throws Exception {
+		if (!circuitBreaker.allowRequest(host))
+			throw new ResourceException("Circuit breaker of " + host + " is open. Next attempt at " + new Date(circuitBreaker.getRetryTime(host)));
+		try {
+			client.executeMethod(httpGet);
+		} catch (Exception e) {
+			circuitBreaker.recordFailure(host);
+			throw e;
+		}
+		if ((httpGet.getStatusCode() >= 500) || (httpGet.getStatusCode() == 429)) {
+			circuitBreaker.recordFailure(host);
+			throw new IOException("HTTP " + httpGet.getStatusCode() + " received from " + host);
+		}
+		circuitBreaker.recordSuccess(host);
+	}
+	
+	private GET createDataRequest(String urlEndpoint, String token, XIChannelPollState pollState) {
+		GET httpGet = new GET(urlEndpoint);
+		httpGet.setRequestHeader("Authorization", "OAuth " + token);
+		if (pollState == null)
+			return httpGet;
+		// Conditional GET: the endpoint answers with 304 if the content was not changed since the last poll
+		String eTag = pollState.getETag();
+		if (eTag != null)
+			httpGet.setRequestHeader("If-None-Match", eTag);
+		String lastModified = pollState.getLastModified();
+		if (lastModified != null)
+			httpGet.setRequestHeader("If-Modified-Since", lastModified);
+		return httpGet;
+	}
+	
+	private String execTokenRequest(HttpClient client, String tokenEndpoint, String user, String pwd, String consumerKey) throws Exception {
+		// Retrieve the OAuth token from the token endpoint 
+		GET httpGet = new GET(tokenEndpoint);
+		String b64encodedLogin = DatatypeConverter.printBase64Binary((user + ":" + pwd).getBytes());
+		httpGet.setRequestHeader("Authorization", "Basic " + b64encodedLogin);
+		httpGet.setRequestHeader("X-ConsumerKey", consumerKey);
+		try {
+			executeMethod(client, httpGet, XICircuitBreaker.getHost(tokenEndpoint));
+			// Scan the response for the value of the token, no DOM is built for this simple path
+			InputStream in = httpGet.getResponseBodyAsStream();
+			if (in == null)
+				throw new IOException("Token endpoint " + tokenEndpoint + " returned no content");
+			try {
+				return XIXPathEvaluator.getEvaluator(TOKEN_XPATH).evaluate(in);
+			} finally {
+				in.close();
+			}
+		} finally {
+			httpGet.releaseConnection();
+		}
+	}
+	
+	private boolean createMessage(byte[] content, String contentType, String extMsgId, String sequenceId, XIInboundChannelConfig config) {
+		final String SIGNATURE = "createMessage(byte[] content, String contentType, String extMsgId, String sequenceId, XIInboundChannelConfig config)";
+		boolean sent = false;
+		XIAuditWriter auditWriter = new XIAuditWriter(audit, config.getAuditLevel());
+		try {
+			Message msg = buildMessage(content, contentType, sequenceId, config.getChannel());
+
+			TransactionTicket txTicket = null;
+			try {
+				txTicket = TxManager.required();
+				dispatchMessage(msg, extMsgId, config, auditWriter);
+				sent = true;
 				
 			} catch (TxRollbackException e) {
+				TRACE.catching(SIGNATURE, e);
 			} catch (TxException e) {
+				TRACE.catching(SIGNATURE, e);
 			} catch (Exception e) {
+				TRACE.catching(SIGNATURE, e);
 				TxManager.setRollbackOnly();
 			} finally {
 				if(txTicket != null)
 					try {
 						TxManager.commitLevel(txTicket);
 					} catch (Exception e) {						
+						TRACE.catching(SIGNATURE, e);
+						sent = false;
 					}
 			}
+			// The audit log entries of a rolled back message would refer to a message that does not exist
+			if (sent)
+				auditWriter.flush();
+			else
+				auditWriter.discard();
+			if (sent && (extMsgId != null))
+				duplicateCache.put(extMsgId, msg.getMessageId());
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Received exception: " + e.getMessage());
+		}
+		if (!sent) {
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Message of channel {0} was not sent, its transaction was rolled back.", new Object[] {config.getChannelID()});
+			statusReporter.report(config.getChannel(), ProcessState.ERROR, "Message could not be sent to AF, transaction was rolled back");
+		}
+		return sent;
+	}
+	
+	/**
+	 * Sends several polled contents in one transaction level, i.e. with one DB commit.
+	 * If the transaction is rolled back (e.g. a module fails for one message) each content is sent
+	 * again in its own transaction, hence one faulty message does not block the others. EOIO contents
+	 * stop at the first failure to keep the order.
+	 * @param batch List of <code>BatchEntry</code> objects
+	 * @return true if all contents were sent
+	 */
+	private boolean createMessages(List batch, XIInboundChannelConfig config) {
+		final String SIGNATURE = "createMessages(List batch, XIInboundChannelConfig config)";
+		if (batch.size() == 1) {
+			BatchEntry entry = (BatchEntry) batch.get(0);
+			return createMessage(entry.content, entry.contentType, entry.extMsgId, entry.sequenceId, config);
+		}
+		
+		boolean committed = false;
+		List msgIds = new ArrayList(batch.size());
+		XIAuditWriter auditWriter = new XIAuditWriter(audit, config.getAuditLevel());
+		TransactionTicket txTicket = null;
+		try {
+			txTicket = TxManager.required();
+			for (int i = 0; i < batch.size(); i++) {
+				BatchEntry entry = (BatchEntry) batch.get(i);
+				Message msg = buildMessage(entry.content, entry.contentType, entry.sequenceId, config.getChannel());
+				dispatchMessage(msg, entry.extMsgId, config, auditWriter);
+				msgIds.add(msg.getMessageId());
+			}
+			committed = true;
+		} catch (TxRollbackException e) {
+			TRACE.catching(SIGNATURE, e);
+		} catch (TxException e) {
+			TRACE.catching(SIGNATURE, e);
 		} catch (Exception e) {
-			TRACE.errorT("createMessage()", XIAdapterCategories.CONNECT_AF, "Received exception: " + e.getMessage());
+			TRACE.catching(SIGNATURE, e);
+			TxManager.setRollbackOnly();
+		} finally {
+			if(txTicket != null)
+				try {
+					TxManager.commitLevel(txTicket);
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+					committed = false;
+				}
+		}
+		
+		if (committed) {
+			auditWriter.flush();
+			for (int i = 0; i < batch.size(); i++) {
+				BatchEntry entry = (BatchEntry) batch.get(i);
+				if (entry.extMsgId != null)
+					duplicateCache.put(entry.extMsgId, (String) msgIds.get(i));
+			}
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "{0} messages of channel {1} were committed in one transaction.", new Object[] {Integer.toString(batch.size()), config.getChannelID()});
+			return true;
+		}
+		
+		// Fall back to one transaction per message
+		auditWriter.discard();
+		TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Transaction with {0} messages of channel {1} was rolled back. Messages are sent one by one now.", new Object[] {Integer.toString(batch.size()), config.getChannelID()});
+		boolean sent = true;
+		for (int i = 0; i < batch.size(); i++) {
+			BatchEntry entry = (BatchEntry) batch.get(i);
+			if (!createMessage(entry.content, entry.contentType, entry.extMsgId, entry.sequenceId, config)) {
+				sent = false;
+				if (entry.sequenceId != null)
+					break;
+			}
+		}
+		return sent;
+	}
+	
+	/**
+	 * Creates the XI message of a polled content
+	 */
+	private Message buildMessage(byte[] content, String contentType, String sequenceId, Channel channel) throws Exception {
+		// Retrieve the binding details from the channel, the address is normalized once per binding
+		XICPACache.BindingAddress address = cpaCache.getBindingAddress(channel.getObjectId());
+
+		// Create the XI message and populate the headers and content
+		if(this.mf == null) {
+			this.mf = new XIMessageFactoryImpl(channel.getAdapterType(), channel.getAdapterNamespace());
+		}
+		Message msg = this.mf.createMessageRecord(address.getFromParty(), address.getToParty(), address.getFromService(), address.getToService(), address.getAction(), address.getActionNS());
+		if (sequenceId != null) {
+			// The split parts of one content are processed in the order they were polled
+			msg.setDeliverySemantics(DeliverySemantics.ExactlyOnceInOrder);
+			msg.setSequenceId(sequenceId);
+		} else
+			msg.setDeliverySemantics(DeliverySemantics.ExactlyOnce);
+
+		XMLPayload xp = msg.createXMLPayload();
+		xp.setContent(content);
+		// Keep the content type and charset of the endpoint, the content was not converted
+		xp.setContentType((contentType != null) ? contentType : "application/xml");				
+		xp.setName("MainDocument");
+		xp.setDescription("EQ Adapter Polling Output");
+		msg.setDocument(xp);
+		return msg;
+	}
+	
+	/**
+	 * Hands over a message to the XI AF. The caller has to provide the transaction and has to flush the audit log entries.
+	 */
+	private void dispatchMessage(Message msg, String extMsgId, XIInboundChannelConfig config, XIAuditWriter auditWriter) throws Exception {
+		Channel channel = config.getChannel();
+		// Set the message into the module for processing by the module processor
+		ModuleData md = new ModuleData();
+		md.setPrincipalData(msg);
+
+		MessageKey amk = new MessageKey(msg.getMessageId(), MessageDirection.OUTBOUND);
+		md.setSupplementalData("audit.key", amk);
+		auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_SUMMARY, "Asynchronous message was polled and will be forwarded to the XI AF MS now.");
+		auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_FULL, "Name of the polled URL: {0}.", new Object[] {config.getUrlEndpoint()});
+		
+		// Store the content ID together with the message, i.e. the ID map is committed or rolled back with the message
+		if (extMsgId != null)
+			messageIDMapper.createIDMap(extMsgId, msg.getMessageId(), System.currentTimeMillis() + DUPLICATE_RETENTION, true);
+		
+		// Process the module, the latency is the measure for the load of the XI AF
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			moduleProcessorHolder.process(channel.getObjectId(), md);
+			failed = false;
+		} finally {
+			dispatchMonitor.record(System.currentTimeMillis() - start, failed);
+		}
+		// Note the channel status, it is coalesced with the other notes of the poll cycle and pushed by the MCF thread
+		statusReporter.report(channel, ProcessState.OK, "Message sent to AF");
+	}
+	
+	/**
+	 * A polled content that waits for its transaction
+	 */
+	private static class BatchEntry {
+		byte[] content;
+		String contentType;
+		String extMsgId;
+		String sequenceId;
+
+		BatchEntry(byte[] content, String contentType, String extMsgId, String sequenceId) {
+			this.content = content;
+			this.contentType = contentType;
+			this.extMsgId = extMsgId;
+			this.sequenceId = sequenceId;
 		}
 	}
 	
@@ -1269,8 +2167,9 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 				if ((xiMsgId = messageIDMapper.getMappedId(extMsgId)) != null) {
 					TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Duplicated and already processed file (message) with id {0} detected.  It will be ignored.", new Object[] {extMsgId});
 					MessageKey amk = new MessageKey(xiMsgId, MessageDirection.OUTBOUND);
-					audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Duplicated and already processed file (message) with id {0} detected.  It will be ignored.", new Object[] {extMsgId});
-					audit.flushAuditLogEntries(amk);
+					XIAuditWriter auditWriter = new XIAuditWriter(audit, channel);
+					auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_SUMMARY, "Duplicated and already processed file (message) with id {0} detected.  It will be ignored.", new Object[] {extMsgId});
+					auditWriter.flush();
 					//Just ignore the message (file) but process it as specified
 					if (0 == processMode.compareToIgnoreCase(PM_RENAME)) {
 						// Rename the file which marks it as "processed"
@@ -1324,7 +2223,7 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 					// since it is the only chance to lookup the "from" address. In this case the channel must not be
 					// assigned to different agreements! To ensure this, set AdapterTypeMetaData/@senderAgreementUnique in the adapter metadata
 					// If the receiver ("to") address is not set the IS will take over the routing (see receiver determination)      
-					Binding binding = CPAFactory.getInstance().getLookupManager().getBindingByChannelId(channelId);
+					Binding binding = cpaCache.getBinding(channelId);
 					action = binding.getActionName();
 					actionNS = binding.getActionNamespace(); 
 					fromParty = binding.getFromParty();
@@ -1483,6 +2382,9 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 				if (!qos.equalsIgnoreCase(QOS_BE))
 				{
 					TransactionTicket txTicket = null; // See explanations below
+					// The audit log entries are written after the commit, a rolled back message does not exist
+					XIAuditWriter auditWriter = new XIAuditWriter(audit, channel);
+					boolean committed = false;
 					try {
 						// CS_LUWBEGIN START
 						// Start the LUW of the inbound transaction
@@ -1529,25 +2431,19 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 							new Object[] {amk.toString(), amk.getDirection().toString(), amk.getMessageId().toString(), amk.toString(), AuditLogStatus.SUCCESS.toString()});
 	
 						// Now write real, sensible entries with key 
-						audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Asynchronous message was read from file and will be forwarded to the XI AF MS now.");
-						audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Name of the processed file: {0}.", new Object[] {inFileName});
-						audit.addAuditLogEntry(amk, AuditLogStatus.WARNING, "Demo: This is a warning audit log message");
-	
-						// And flush them into the DB
-						audit.flushAuditLogEntries(amk);
+						auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_SUMMARY, "Asynchronous message was read from file and will be forwarded to the XI AF MS now.");
+						auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_FULL, "Name of the processed file: {0}.", new Object[] {inFileName});
 	
 						// Remove of audit log is not permitted with 7.1 anymore:
 						// audit.removeAuditLogEntries(amk, false);
-						// Even with the following (unnecessary) flush the removed entries won't be visible!					
-						audit.flushAuditLogEntries(amk);
 						// CS_TRAUD END
 	
 						// Hand over the message to the XI AF (module processor) now
 						// CS_AFMPCALL START
 						TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Message will be forwarded to XI AF MP and channel: " + channelId);
 
-						//Lookup ModuleProcessor and process the message
-						lookUpModuleProcessor(1).process(channelId, md);
+						//Process the message with the cached ModuleProcessor
+						moduleProcessorHolder.process(channelId, md);
 
 						TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "The message with ID " + msg.getMessageId() + " was forwarded to the XI AF succesfully.");
 						// CS_AFMPCALL END
@@ -1563,8 +2459,6 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 						// It illustrates a rollback of the message in the AF and the message ID map.
 						// => The message is not recognized as duplicated when it is sent again
 						if (0 == raiseError.compareToIgnoreCase(ERR_ROLLBACK)) {
-							audit.addAuditLogEntry(amk, AuditLogStatus.ERROR, "Channel error mode is set to " + ERR_ROLLBACK + ". An Exception is thrown now to demonstrate a rollback behavior.");
-							audit.flushAuditLogEntries(amk);
 							TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel error mode is set to " + ERR_ROLLBACK + ". An Exception is thrown now to demonstrate a rollback behavior.");
 							// CS_PROCALERT START
 							// The next lines illustrate how to create and push a process state that will trigger a SAP CCMS Alert to the SAP alert framework 
@@ -1592,6 +2486,7 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 						// ID map was saved with the DB commit
 						if (0 == processMode.compareToIgnoreCase(PM_RENAME)) 
 							renameFile(inFileName, inputFile);
+						committed = true;
 		            } catch (TxRollbackException e) {
 						TRACE.catching(SIGNATURE, e);
 		                // The commit has turned into a rollback; maybe there are some
@@ -1623,11 +2518,16 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 								TxManager.commitLevel(txTicket);
 			            	} catch (Exception e) {
 			            		//$JL-EXC$ No other handling required-.
+								committed = false;
 								TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Internal transaction manager exception received. Rollback is performed!. Reason: {0}. Message will be processed again later.", new Object[] {e.getMessage()});
 			            	}
 							TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Transaction level was committed succesfully.");
 						// CS_LUWCOMMIT END
 						}
+						if (committed)
+							auditWriter.flush();
+						else
+							auditWriter.discard();
 					}
 				}
 				// In case of synchronous BE message do not use transactions and process the synchronous response
@@ -1638,11 +2538,13 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 						xiMsgId = msg.getMessageId();
 						MessageKey amk = new MessageKey(xiMsgId, MessageDirection.OUTBOUND);
 						md.setSupplementalData("audit.key", amk);
-						audit.addAuditLogEntry(amk, AuditLogStatus.SUCCESS, "Synchronous message was read from file and will be forwarded to the XI AF MS now.");
+						XIAuditWriter auditWriter = new XIAuditWriter(audit, channel);
+						auditWriter.add(amk, AuditLogStatus.SUCCESS, XIAuditWriter.LEVEL_SUMMARY, "Synchronous message was read from file and will be forwarded to the XI AF MS now.");
+						auditWriter.write();
 						// Hand over the message to the XI AF (module processor) now
 						TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Message will be forwarded to XI AF MP and channel: " + channelId);
 
-						ModuleData result = lookUpModuleProcessor(1).process(channelId, md);                       
+						ModuleData result = moduleProcessorHolder.process(channelId, md);                       
 						
 						TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "The synchronous message with ID " + msg.getMessageId() + " was processed by the XI AF succesfully.");
 						Object principal = result.getPrincipalData();
@@ -1780,6 +2682,266 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 		TRACE.exiting(SIGNATURE);
 	}
 
+	/**
+	 * Getter for the maxPollingThreads for JCA ra configuration.
+	 * @return Integer maximum number of inbound channels that are polled in parallel
+	 */
+	public Integer getMaxPollingThreads() {
+		return new Integer(maxPollingThreads);
+	}
+
+	/**
+	 * Setter for the maxPollingThreads for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param maxPollingThreads maximum number of inbound channels that are polled in parallel
+	 */
+	public void setMaxPollingThreads(Integer maxPollingThreads) {
+		final String SIGNATURE = "setMaxPollingThreads(Integer maxPollingThreads)";
+		TRACE.entering(SIGNATURE, new Object[] {maxPollingThreads});
+		if ((maxPollingThreads != null) && (maxPollingThreads.intValue() > 0))
+			this.maxPollingThreads = maxPollingThreads.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for maxPollingThreads: {0}. Keep: {1}", new Object[] {maxPollingThreads, Integer.toString(this.maxPollingThreads)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the dispatchLatencyThreshold for JCA ra configuration.
+	 * @return Integer average dispatch latency in ms above which the polling is throttled, 0 if the throttling is off
+	 */
+	public Integer getDispatchLatencyThreshold() {
+		return new Integer(dispatchLatencyThreshold);
+	}
+
+	/**
+	 * Setter for the dispatchLatencyThreshold for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param dispatchLatencyThreshold average dispatch latency in ms above which the polling is throttled, 0 switches the throttling off
+	 */
+	public void setDispatchLatencyThreshold(Integer dispatchLatencyThreshold) {
+		final String SIGNATURE = "setDispatchLatencyThreshold(Integer dispatchLatencyThreshold)";
+		TRACE.entering(SIGNATURE, new Object[] {dispatchLatencyThreshold});
+		if ((dispatchLatencyThreshold != null) && (dispatchLatencyThreshold.intValue() >= 0))
+			this.dispatchLatencyThreshold = dispatchLatencyThreshold.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for dispatchLatencyThreshold: {0}. Keep: {1}", new Object[] {dispatchLatencyThreshold, Integer.toString(this.dispatchLatencyThreshold)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the maxThrottleFactor for JCA ra configuration.
+	 * @return Integer maximum factor the poll intervals are stretched with while the XI AF is saturated
+	 */
+	public Integer getMaxThrottleFactor() {
+		return new Integer(maxThrottleFactor);
+	}
+
+	/**
+	 * Setter for the maxThrottleFactor for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param maxThrottleFactor maximum factor the poll intervals are stretched with while the XI AF is saturated
+	 */
+	public void setMaxThrottleFactor(Integer maxThrottleFactor) {
+		final String SIGNATURE = "setMaxThrottleFactor(Integer maxThrottleFactor)";
+		TRACE.entering(SIGNATURE, new Object[] {maxThrottleFactor});
+		if ((maxThrottleFactor != null) && (maxThrottleFactor.intValue() > 0))
+			this.maxThrottleFactor = maxThrottleFactor.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for maxThrottleFactor: {0}. Keep: {1}", new Object[] {maxThrottleFactor, Integer.toString(this.maxThrottleFactor)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the fileMapThreshold for JCA ra configuration.
+	 * @return Integer file size in bytes from which on retrieved files are memory-mapped
+	 */
+	public Integer getFileMapThreshold() {
+		return new Integer(fileMapThreshold);
+	}
+
+	/**
+	 * Setter for the fileMapThreshold for JCA ra configuration.
+	 * The value is taken over with the next request.
+	 * @param fileMapThreshold file size in bytes from which on retrieved files are memory-mapped, 0 switches the mapping off
+	 */
+	public void setFileMapThreshold(Integer fileMapThreshold) {
+		final String SIGNATURE = "setFileMapThreshold(Integer fileMapThreshold)";
+		TRACE.entering(SIGNATURE, new Object[] {fileMapThreshold});
+		if ((fileMapThreshold != null) && (fileMapThreshold.intValue() >= 0))
+			this.fileMapThreshold = fileMapThreshold.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for fileMapThreshold: {0}. Keep: {1}", new Object[] {fileMapThreshold, Integer.toString(this.fileMapThreshold)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the maxFileReadThreads for JCA ra configuration.
+	 * @return Integer maximum number of files of multi-file requests that are read in parallel
+	 */
+	public Integer getMaxFileReadThreads() {
+		return new Integer(maxFileReadThreads);
+	}
+
+	/**
+	 * Setter for the maxFileReadThreads for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param maxFileReadThreads maximum number of files of multi-file requests that are read in parallel
+	 */
+	public void setMaxFileReadThreads(Integer maxFileReadThreads) {
+		final String SIGNATURE = "setMaxFileReadThreads(Integer maxFileReadThreads)";
+		TRACE.entering(SIGNATURE, new Object[] {maxFileReadThreads});
+		if ((maxFileReadThreads != null) && (maxFileReadThreads.intValue() > 0))
+			this.maxFileReadThreads = maxFileReadThreads.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for maxFileReadThreads: {0}. Keep: {1}", new Object[] {maxFileReadThreads, Integer.toString(this.maxFileReadThreads)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the pushBindAddress for JCA ra configuration.
+	 * @return String local address the push listener is bound to, empty for all interfaces
+	 */
+	public String getPushBindAddress() {
+		return pushBindAddress;
+	}
+
+	/**
+	 * Setter for the pushBindAddress for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param pushBindAddress local address (host name or IP) the push listener is bound to, empty or 0.0.0.0 for all interfaces
+	 */
+	public void setPushBindAddress(String pushBindAddress) {
+		final String SIGNATURE = "setPushBindAddress(String pushBindAddress)";
+		TRACE.entering(SIGNATURE, new Object[] {pushBindAddress});
+		this.pushBindAddress = (pushBindAddress != null) ? pushBindAddress.trim() : "";
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the pushListenerPort for JCA ra configuration.
+	 * @return Integer TCP port of the push listener, 0 if the listener is switched off
+	 */
+	public Integer getPushListenerPort() {
+		return new Integer(pushListenerPort);
+	}
+
+	/**
+	 * Setter for the pushListenerPort for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param pushListenerPort TCP port of the push listener, 0 switches the listener off
+	 */
+	public void setPushListenerPort(Integer pushListenerPort) {
+		final String SIGNATURE = "setPushListenerPort(Integer pushListenerPort)";
+		TRACE.entering(SIGNATURE, new Object[] {pushListenerPort});
+		if ((pushListenerPort != null) && (pushListenerPort.intValue() >= 0) && (pushListenerPort.intValue() <= 65535))
+			this.pushListenerPort = pushListenerPort.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for pushListenerPort: {0}. Keep: {1}", new Object[] {pushListenerPort, Integer.toString(this.pushListenerPort)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the pushQueueCapacity for JCA ra configuration.
+	 * @return Integer maximum number of pushed requests that wait for the worker pool
+	 */
+	public Integer getPushQueueCapacity() {
+		return new Integer(pushQueueCapacity);
+	}
+
+	/**
+	 * Setter for the pushQueueCapacity for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * @param pushQueueCapacity maximum number of pushed requests that wait for the worker pool
+	 */
+	public void setPushQueueCapacity(Integer pushQueueCapacity) {
+		final String SIGNATURE = "setPushQueueCapacity(Integer pushQueueCapacity)";
+		TRACE.entering(SIGNATURE, new Object[] {pushQueueCapacity});
+		if ((pushQueueCapacity != null) && (pushQueueCapacity.intValue() > 0))
+			this.pushQueueCapacity = pushQueueCapacity.intValue();
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid value for pushQueueCapacity: {0}. Keep: {1}", new Object[] {pushQueueCapacity, Integer.toString(this.pushQueueCapacity)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Getter for the watermarkFile for JCA ra configuration.
+	 * @return String absolute name of the file that stores the watermarks of the incremental polling
+	 */
+	public String getWatermarkFile() {
+		return watermarkFile;
+	}
+
+	/**
+	 * Setter for the watermarkFile for JCA ra configuration.
+	 * The value is taken over when the inbound processing is (re)started.
+	 * The name must be absolute, otherwise the incremental polling is not possible.
+	 * @param watermarkFile absolute name of the file that stores the watermarks of the incremental polling
+	 */
+	public void setWatermarkFile(String watermarkFile) {
+		final String SIGNATURE = "setWatermarkFile(String watermarkFile)";
+		TRACE.entering(SIGNATURE, new Object[] {watermarkFile});
+		if ((watermarkFile != null) && (watermarkFile.trim().length() > 0))
+			this.watermarkFile = watermarkFile.trim();
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Gets the number of inbound channels that wait for a free worker thread
+	 * (ra implementation specific)
+	 * @return Queue depth of the inbound worker pool, 0 if the inbound processing is not started
+	 */
+	public int getPollingQueueDepth() {
+		return (workerPool == null) ? 0 : workerPool.getQueueDepth();
+	}
+
+	/**
+	 * Gets the number of polled duplicates that were detected in memory
+	 * (ra implementation specific)
+	 * @return Hits of the in-memory duplicate cache, 0 if the inbound processing is not started
+	 */
+	public long getDuplicateCacheHits() {
+		return (duplicateCache == null) ? 0 : duplicateCache.getCacheHits();
+	}
+
+	/**
+	 * Gets the number of polled duplicates that were detected by the XI AF message ID mapper
+	 * (ra implementation specific)
+	 * @return Hits of the message ID mapper, 0 if the inbound processing is not started
+	 */
+	public long getDuplicateMapperHits() {
+		return (duplicateCache == null) ? 0 : duplicateCache.getMapperHits();
+	}
+
+	/**
+	 * Gets the number of polled contents that were checked and were no duplicates
+	 * (ra implementation specific)
+	 * @return Misses of the duplicate cache, 0 if the inbound processing is not started
+	 */
+	public long getDuplicateCacheMisses() {
+		return (duplicateCache == null) ? 0 : duplicateCache.getMisses();
+	}
+
+	/**
+	 * @return Number of XI AF module processor lookups of this MCF
+	 */
+	public long getModuleProcessorLookups() {
+		return moduleProcessorHolder.getLookups();
+	}
+
+	/**
+	 * @return Accumulated duration of the XI AF module processor lookups of this MCF in ms
+	 */
+	public long getModuleProcessorLookupTime() {
+		return moduleProcessorHolder.getLookupTime();
+	}
+
+	/**
+	 * @return Duration of the last XI AF module processor lookup of this MCF in ms
+	 */
+	public long getModuleProcessorLastLookupTime() {
+		return moduleProcessorHolder.getLastLookupTime();
+	}
+
 	/**
 	 * Getter for the MCF GUID
 	 * @return GUID Guid of this MCF
@@ -1821,6 +2983,38 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 				if (controlledMcf != null)
 					controlledMcfGuid = controlledMcf.getMcfLocalGuid().toHexString();
 					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "MCF with GUID {0} is running. ({1})", new Object [] {controlledMcfGuid.toString(), SPIManagedConnectionFactory.class.getClassLoader()});
+				if ((controlledMcf != null) && (controlledMcf.workerPool != null))
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Inbound worker pool status: {0}", new Object [] {controlledMcf.workerPool.toString()});
+				if ((controlledMcf != null) && (controlledMcf.fileReadPool != null))
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "File reader pool status: {0}", new Object [] {controlledMcf.fileReadPool.toString()});
+				if ((controlledMcf != null) && (controlledMcf.tokenCache != null))
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Token cache status: {0}", new Object [] {controlledMcf.tokenCache.toString()});
+				if ((controlledMcf != null) && (controlledMcf.duplicateCache != null))
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Duplicate cache status: {0}", new Object [] {controlledMcf.duplicateCache.toString()});
+				if (controlledMcf != null)
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Module processor status: {0}", new Object [] {controlledMcf.moduleProcessorHolder.toString()});
+				if (controlledMcf != null)
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "CPA cache status: {0}", new Object [] {controlledMcf.cpaCache.toString()});
+				if (controlledMcf != null)
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Circuit breaker status: {0}", new Object [] {controlledMcf.circuitBreaker.toString()});
+				if (controlledMcf != null)
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Dispatch monitor status: {0}", new Object [] {controlledMcf.dispatchMonitor.toString()});
+				if ((controlledMcf != null) && (controlledMcf.statusReporter != null))
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Status reporter status: {0}", new Object [] {controlledMcf.statusReporter.toString()});
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "XPath evaluator status: {0}", new Object [] {XIXPathEvaluator.getStatistics()});
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "File reader status: {0}", new Object [] {XIFileReader.getStatistics()});
+				if (controlledMcf != null) {
+					synchronized (controlledMcf.fileCaches) {
+						for (Iterator it = controlledMcf.fileCaches.entrySet().iterator(); it.hasNext();) {
+							Map.Entry entry = (Map.Entry) it.next();
+							TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "File cache status of channel {0}: {1}", new Object [] {entry.getKey(), entry.getValue().toString()});
+						}
+					}
+				}
+				if ((controlledMcf != null) && (controlledMcf.pushListener != null))
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push listener status: {0}", new Object [] {controlledMcf.pushListener.toString()});
+				if (controlledMcf != null)
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "HTTP client status: {0}", new Object [] {controlledMcf.httpClients.toString()});
 			}
 			catch(Exception e) {
 				TRACE.catching(SIGNATURE, e);
@@ -1866,6 +3060,7 @@ public class SPIManagedConnectionFactory implements ManagedConnectionFactory, Se
 			TRACE.exiting(SIGNATURE);
 			return;
 		}
+		duplicateCache = new XIDuplicateCache(messageIDMapper, DUPLICATE_CACHE_SIZE, DUPLICATE_RETENTION);
 		// CS_IDMAPACCESS END
 
 		// Create a message factory for XI messages
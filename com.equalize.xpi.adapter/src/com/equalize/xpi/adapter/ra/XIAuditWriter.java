@@ -0,0 +1,168 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sap.aii.af.service.cpa.Channel;
+import com.sap.engine.interfaces.messaging.api.MessageKey;
+import com.sap.engine.interfaces.messaging.api.auditlog.AuditAccess;
+import com.sap.engine.interfaces.messaging.api.auditlog.AuditLogStatus;
+
+/**
+ * The <code>XIAuditWriter</code> collects the audit log entries of the messages that are processed in one
+ * transaction and hands them over to the XI AF audit log at the transaction boundary, i.e. the entries
+ * of a message are flushed into the DB once instead of with each entry.
+ * The channel attribute <code>auditLevel</code> determines which entries are written:
+ * <ul>
+ * <li><code>errors</code>: error entries only,</li>
+ * <li><code>summary</code>: error entries and one summary entry per message,</li>
+ * <li><code>full</code>: all entries (default).</li>
+ * </ul>
+ * A writer is used by one thread only.
+ * (ra implementation specific)
+ **/
+public class XIAuditWriter {
+
+	private static final XITrace TRACE = new XITrace(XIAuditWriter.class.getName());
+
+	public static final int LEVEL_ERRORS = 0;
+	public static final int LEVEL_SUMMARY = 1;
+	public static final int LEVEL_FULL = 2;
+
+	private AuditAccess audit = null;
+	private int level = LEVEL_FULL;
+	// Collected entries per message key (MessageKey -> List of Entry)
+	private Map entries = new LinkedHashMap();
+
+	private static class Entry {
+		AuditLogStatus status;
+		String text;
+		Object[] params;
+
+		Entry(AuditLogStatus status, String text, Object[] params) {
+			this.status = status;
+			this.text = text;
+			this.params = params;
+		}
+	}
+
+	/**
+	 * Creates a writer with the audit level of a channel
+	 * @param audit XI AF audit log access
+	 * @param channel Channel whose attribute <code>auditLevel</code> is used
+	 */
+	public XIAuditWriter(AuditAccess audit, Channel channel) {
+		this(audit, getLevel(channel));
+	}
+
+	/**
+	 * Creates a writer
+	 * @param audit XI AF audit log access
+	 * @param level One of the <code>LEVEL_</code> constants
+	 */
+	public XIAuditWriter(AuditAccess audit, int level) {
+		this.audit = audit;
+		this.level = level;
+	}
+
+	/**
+	 * Reads the audit level of a channel
+	 * @param channel Channel
+	 * @return One of the <code>LEVEL_</code> constants, <code>LEVEL_FULL</code> if the channel has no valid level
+	 */
+	public static int getLevel(Channel channel) {
+		final String SIGNATURE = "getLevel(Channel channel)";
+		String value = null;
+		try {
+			value = channel.getValueAsString("auditLevel");
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+		}
+		if ("errors".equalsIgnoreCase(value))
+			return LEVEL_ERRORS;
+		if ("summary".equalsIgnoreCase(value))
+			return LEVEL_SUMMARY;
+		return LEVEL_FULL;
+	}
+
+	/**
+	 * Adds an entry if the level of the writer includes it. Error entries are always added.
+	 * @param amk Message key of the message
+	 * @param status Status of the entry
+	 * @param entryLevel <code>LEVEL_SUMMARY</code> or <code>LEVEL_FULL</code>
+	 * @param text Text of the entry
+	 */
+	public void add(MessageKey amk, AuditLogStatus status, int entryLevel, String text) {
+		add(amk, status, entryLevel, text, null);
+	}
+
+	/**
+	 * Adds an entry if the level of the writer includes it. Error entries are always added.
+	 * @param amk Message key of the message
+	 * @param status Status of the entry
+	 * @param entryLevel <code>LEVEL_SUMMARY</code> or <code>LEVEL_FULL</code>
+	 * @param text Text of the entry with placeholders
+	 * @param params Values of the placeholders or null
+	 */
+	public void add(MessageKey amk, AuditLogStatus status, int entryLevel, String text, Object[] params) {
+		if ((entryLevel > level) && (status != AuditLogStatus.ERROR))
+			return;
+		List list = (List) entries.get(amk);
+		if (list == null) {
+			list = new ArrayList();
+			entries.put(amk, list);
+		}
+		list.add(new Entry(status, text, params));
+	}
+
+	/**
+	 * Hands over the collected entries to the XI AF audit log and flushes them into the DB,
+	 * i.e. one flush per message
+	 */
+	public void flush() {
+		write(true);
+	}
+
+	/**
+	 * Hands over the collected entries to the XI AF audit log without flushing them,
+	 * e.g. for synchronous messages that are kept in memory only
+	 */
+	public void write() {
+		write(false);
+	}
+
+	/**
+	 * Drops the collected entries, e.g. because the transaction of the messages was rolled back
+	 */
+	public void discard() {
+		entries.clear();
+	}
+
+	private void write(boolean flush) {
+		final String SIGNATURE = "write(boolean flush)";
+		for (Iterator it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry mapEntry = (Map.Entry) it.next();
+			MessageKey amk = (MessageKey) mapEntry.getKey();
+			List list = (List) mapEntry.getValue();
+			try {
+				for (int i = 0; i < list.size(); i++) {
+					Entry entry = (Entry) list.get(i);
+					if (entry.params == null)
+						audit.addAuditLogEntry(amk, entry.status, entry.text);
+					else
+						audit.addAuditLogEntry(amk, entry.status, entry.text, entry.params);
+				}
+				if (flush)
+					audit.flushAuditLogEntries(amk);
+			} catch (Exception e) {
+				// The audit log must not break the message processing
+				TRACE.catching(SIGNATURE, e);
+				TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Audit log entries for message {0} cannot be written: {1}", new Object[] {amk.toString(), e.getMessage()});
+			}
+		}
+		entries.clear();
+	}
+}
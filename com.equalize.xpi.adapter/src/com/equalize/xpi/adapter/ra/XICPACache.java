@@ -0,0 +1,179 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sap.aii.af.service.administration.api.cpa.CPAFactory;
+import com.sap.aii.af.service.cpa.Binding;
+import com.sap.aii.af.service.cpa.CPAObjectType;
+import com.sap.aii.af.service.cpa.Channel;
+
+/**
+ * The <code>XICPACache</code> keeps the channel objects and the bindings (agreements) of the channels that
+ * were read from the XI AF CPA cache, hence they are not looked up for each message or connection anymore.
+ * The entries are keyed by channel ID and are dropped by <code>XIConfiguration</code> when the channel is
+ * updated or removed, i.e. the next access reads the changed configuration.
+ * The address of a binding is normalized once when the binding is read (wildcards and null values become "").
+ * (ra implementation specific)
+ **/
+public class XICPACache {
+
+	private static final XITrace TRACE = new XITrace(XICPACache.class.getName());
+
+	private Map channels = new HashMap();
+	private Map addresses = new HashMap();
+	// Incremented with each invalidation, lookups that overlap an invalidation are not cached
+	private long generation = 0;
+
+	// Statistics
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * The normalized address of a binding (ra implementation specific)
+	 */
+	public static class BindingAddress {
+		private Binding binding;
+		private String fromParty;
+		private String fromService;
+		private String toParty;
+		private String toService;
+		private String action;
+		private String actionNS;
+
+		BindingAddress(Binding binding) {
+			this.binding = binding;
+			this.fromParty = normalize(binding.getFromParty());
+			this.fromService = normalize(binding.getFromService());
+			this.toParty = normalize(binding.getToParty());
+			this.toService = normalize(binding.getToService());
+			this.action = normalize(binding.getActionName());
+			this.actionNS = normalize(binding.getActionNamespace());
+		}
+
+		// Normalize wildcards and null's to "non-specified" address value
+		private static String normalize(String value) {
+			if ((value == null) || (value.equals("*")))
+				return "";
+			return value;
+		}
+
+		public Binding getBinding() {
+			return binding;
+		}
+
+		public String getFromParty() {
+			return fromParty;
+		}
+
+		public String getFromService() {
+			return fromService;
+		}
+
+		public String getToParty() {
+			return toParty;
+		}
+
+		public String getToService() {
+			return toService;
+		}
+
+		public String getAction() {
+			return action;
+		}
+
+		public String getActionNS() {
+			return actionNS;
+		}
+	}
+
+	/**
+	 * Returns the channel object of a channel
+	 * @param channelID ID of the channel
+	 * @return Channel object
+	 * @throws Exception if the channel cannot be read from the CPA cache, e.g. because it is stopped
+	 */
+	public Channel getChannel(String channelID) throws Exception {
+		final String SIGNATURE = "getChannel(String channelID)";
+		long lookupGeneration;
+		synchronized (this) {
+			Channel channel = (Channel) channels.get(channelID);
+			if (channel != null) {
+				hits++;
+				return channel;
+			}
+			misses++;
+			lookupGeneration = generation;
+		}
+		Channel channel = (Channel) CPAFactory.getInstance().getLookupManager().getCPAObject(CPAObjectType.CHANNEL, channelID);
+		synchronized (this) {
+			if (lookupGeneration == generation)
+				channels.put(channelID, channel);
+		}
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel {0} was read from the CPA cache.", new Object[] {channelID});
+		return channel;
+	}
+
+	/**
+	 * Returns the binding of a channel. The channel must not be assigned to several bindings.
+	 * @param channelID ID of the channel
+	 * @return Binding with its normalized address
+	 * @throws Exception if the binding cannot be read from the CPA cache
+	 */
+	public BindingAddress getBindingAddress(String channelID) throws Exception {
+		final String SIGNATURE = "getBindingAddress(String channelID)";
+		long lookupGeneration;
+		synchronized (this) {
+			BindingAddress address = (BindingAddress) addresses.get(channelID);
+			if (address != null) {
+				hits++;
+				return address;
+			}
+			misses++;
+			lookupGeneration = generation;
+		}
+		BindingAddress address = new BindingAddress(CPAFactory.getInstance().getLookupManager().getBindingByChannelId(channelID));
+		synchronized (this) {
+			if (lookupGeneration == generation)
+				addresses.put(channelID, address);
+		}
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Binding of channel {0} was read from the CPA cache.", new Object[] {channelID});
+		return address;
+	}
+
+	/**
+	 * Returns the binding of a channel. The channel must not be assigned to several bindings.
+	 * @param channelID ID of the channel
+	 * @return Binding
+	 * @throws Exception if the binding cannot be read from the CPA cache
+	 */
+	public Binding getBinding(String channelID) throws Exception {
+		return getBindingAddress(channelID).getBinding();
+	}
+
+	/**
+	 * Drops the channel object and the binding of a channel
+	 * @param channelID ID of the updated or removed channel
+	 */
+	public synchronized void invalidate(String channelID) {
+		channels.remove(channelID);
+		addresses.remove(channelID);
+		generation++;
+	}
+
+	/**
+	 * Drops all entries
+	 */
+	public synchronized void clear() {
+		channels.clear();
+		addresses.clear();
+		generation++;
+	}
+
+	/**
+	 * @return Short statistic of the cache for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XICPACache [channels: " + channels.size() + ", bindings: " + addresses.size() + ", hits: " + hits + ", misses: " + misses + "]";
+	}
+}
@@ -0,0 +1,38 @@
+package com.equalize.xpi.adapter.ra;
+
+/**
+ * The <code>XIChannelPollState</code> remembers what an inbound channel has received from its endpoint
+ * in the last successful poll. The <code>ETag</code> and <code>Last-Modified</code> validators are sent with the
+ * next poll as <code>If-None-Match</code> and <code>If-Modified-Since</code>, hence an endpoint whose content
+ * was not changed can answer with HTTP 304 and no message has to be created.
+ * The validators are only taken over after the polled content was sent to the XI AF successfully.
+ * (ra implementation specific)
+ **/
+public class XIChannelPollState {
+
+	private String eTag = null;
+	private String lastModified = null;
+
+	/**
+	 * @return ETag of the last successfully processed response or null
+	 */
+	public synchronized String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return Last-Modified value of the last successfully processed response or null
+	 */
+	public synchronized String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Takes over the validators of a response that was processed successfully
+	 * @param response Processed response
+	 */
+	public synchronized void update(XIHttpResponse response) {
+		this.eTag = response.getETag();
+		this.lastModified = response.getLastModified();
+	}
+}
@@ -0,0 +1,157 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The <code>XICircuitBreaker</code> protects the inbound channels from endpoints that are down.
+ * It keeps one breaker per endpoint host (protocol, host and port), which is shared by all channels that
+ * poll this host, either for data or for tokens:
+ * <ul>
+ * <li>closed: requests are sent, consecutive failures are counted,</li>
+ * <li>open: after too many consecutive failures no request is sent till the retry time; the open time is
+ * doubled with each further failed attempt (with random jitter) up to a maximum,</li>
+ * <li>half-open: after the retry time one request is let through as probe. If it succeeds the breaker
+ * is closed again, otherwise it is opened again.</li>
+ * </ul>
+ * (ra implementation specific)
+ **/
+public class XICircuitBreaker {
+
+	private static final XITrace TRACE = new XITrace(XICircuitBreaker.class.getName());
+
+	public static final int CLOSED = 0;
+	public static final int OPEN = 1;
+	public static final int HALF_OPEN = 2;
+
+	// Channels of a host whose probe is in flight try again after this time
+	private static final long PROBE_WAIT = 5000;
+	// Jitter of the open time: +/- 20%
+	private static final double JITTER = 0.2;
+
+	private int failureThreshold = 3;
+	private long baseOpenTime = 10000;
+	private long maxOpenTime = 600000;
+
+	// Host -> Breaker
+	private Map breakers = new HashMap();
+	private Random random = new Random();
+
+	private static class Breaker {
+		int state = CLOSED;
+		int failures = 0;
+		int openCount = 0;
+		long retryTime = 0;
+	}
+
+	/**
+	 * Creates the breakers
+	 * @param failureThreshold Number of consecutive failures that open a breaker
+	 * @param baseOpenTime Open time in ms after the first opening
+	 * @param maxOpenTime Maximum open time in ms
+	 */
+	public XICircuitBreaker(int failureThreshold, long baseOpenTime, long maxOpenTime) {
+		this.failureThreshold = (failureThreshold > 0) ? failureThreshold : 1;
+		this.baseOpenTime = baseOpenTime;
+		this.maxOpenTime = maxOpenTime;
+	}
+
+	/**
+	 * Determines the breaker key of an URL
+	 * @param url Endpoint URL
+	 * @return Protocol, host and port of the URL or the URL itself if it cannot be parsed
+	 */
+	public static String getHost(String url) {
+		try {
+			URL u = new URL(url);
+			int port = (u.getPort() >= 0) ? u.getPort() : u.getDefaultPort();
+			return u.getProtocol() + "://" + u.getHost() + ":" + port;
+		} catch (Exception e) {
+			return url;
+		}
+	}
+
+	/**
+	 * Checks whether a request to a host may be sent. If the retry time of an open breaker has elapsed
+	 * the breaker becomes half-open and the caller sends the probe request.
+	 * @param host Breaker key, see <code>getHost()</code>
+	 * @return true if the request may be sent
+	 */
+	public synchronized boolean allowRequest(String host) {
+		final String SIGNATURE = "allowRequest(String host)";
+		Breaker breaker = (Breaker) breakers.get(host);
+		if ((breaker == null) || (breaker.state == CLOSED))
+			return true;
+		if ((breaker.state == OPEN) && (System.currentTimeMillis() >= breaker.retryTime)) {
+			breaker.state = HALF_OPEN;
+			TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Circuit breaker of {0} is half-open. Sending probe request.", new Object[] {host});
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records a successful request, i.e. the breaker of the host is closed
+	 * @param host Breaker key
+	 */
+	public synchronized void recordSuccess(String host) {
+		final String SIGNATURE = "recordSuccess(String host)";
+		Breaker breaker = (Breaker) breakers.remove(host);
+		if ((breaker != null) && (breaker.state != CLOSED))
+			TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Circuit breaker of {0} is closed again.", new Object[] {host});
+	}
+
+	/**
+	 * Records a failed request. The breaker is opened if the failure threshold is reached or the probe failed.
+	 * @param host Breaker key
+	 */
+	public synchronized void recordFailure(String host) {
+		final String SIGNATURE = "recordFailure(String host)";
+		Breaker breaker = (Breaker) breakers.get(host);
+		if (breaker == null) {
+			breaker = new Breaker();
+			breakers.put(host, breaker);
+		}
+		breaker.failures++;
+		if ((breaker.state == HALF_OPEN) || ((breaker.state == CLOSED) && (breaker.failures >= failureThreshold))) {
+			long openTime = baseOpenTime << Math.min(breaker.openCount, 20);
+			openTime = Math.min(openTime, maxOpenTime);
+			openTime = (long) (openTime * (1 - JITTER + 2 * JITTER * random.nextDouble()));
+			breaker.openCount++;
+			breaker.state = OPEN;
+			breaker.retryTime = System.currentTimeMillis() + openTime;
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Circuit breaker of {0} is open after {1} failures. Next attempt in {2} ms.",
+				new Object[] {host, Integer.toString(breaker.failures), Long.toString(openTime)});
+		}
+	}
+
+	/**
+	 * Returns the time when the next request to a host may be sent
+	 * @param host Breaker key
+	 * @return Time in ms since epoch or -1 if the breaker is closed
+	 */
+	public synchronized long getRetryTime(String host) {
+		Breaker breaker = (Breaker) breakers.get(host);
+		if ((breaker == null) || (breaker.state == CLOSED))
+			return -1;
+		if (breaker.state == HALF_OPEN)
+			return System.currentTimeMillis() + PROBE_WAIT;
+		return breaker.retryTime;
+	}
+
+	/**
+	 * Forgets all breakers
+	 */
+	public synchronized void clear() {
+		breakers.clear();
+	}
+
+	/**
+	 * @return Short statistic of the breakers for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XICircuitBreaker [hosts with failures: " + breakers.size() + "]";
+	}
+}
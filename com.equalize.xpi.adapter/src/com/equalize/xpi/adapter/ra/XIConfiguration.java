@@ -4,8 +4,12 @@
 package com.equalize.xpi.adapter.ra;
 
 import java.io.File;
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.resource.ResourceException;
 
@@ -52,6 +56,11 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 	private LinkedList outboundChannels = null; //Note that other collections might show a better performance
 	private LinkedList inboundChannels = null;
 
+	// Typed configurations of the valid channels (channel ID -> XIInboundChannelConfig or XIOutboundChannelConfig)
+	// and the reasons why the other channels were rejected (channel ID -> String)
+	private Map channelConfigs = new HashMap();
+	private Map configErrors = new HashMap();
+
 	// AAM access classes
 	private CPALookupManager lookupManager = null;
 	private AdapterRegistry adapterRegistry = null;
@@ -100,37 +109,35 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 
 		String dir = null;
 		String name = null;
+		Object config = null;
 		
 		// Store channel in local lists. Please note: Synchronization could be optimized by synchronization on the lists
+		// The channel configuration is validated once here, the runtime uses the typed configuration only
 		synchronized (this) {
 			if (channel.getDirection() == Direction.INBOUND) {
 				inboundChannels.add(channel);
-				try {
-					//dir = channel.getValueAsString("fileInDir");
-					//name = channel.getValueAsString("fileInName");
-					dir = channel.getValueAsString("urlEndpoint");
-					name = "";
-				}
-				catch (Exception e) {
-					TRACE.catching(SIGNATURE, e);
-					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel configuration value cannot be read due to {0}", new Object[] {e.getMessage()});
-				}	
+				config = buildConfig(channel);
+				//dir = channel.getValueAsString("fileInDir");
+				//name = channel.getValueAsString("fileInName");
+				if (config != null)
+					dir = ((XIInboundChannelConfig) config).getUrlEndpoint();
+				name = "";
 			}
 			else if (channel.getDirection() == Direction.OUTBOUND) {
 				outboundChannels.add(channel);
-				try {
-					//dir = channel.getValueAsString("fileOutDir");
-					//name = channel.getValueAsString("fileOutPrefix");
-					dir = channel.getValueAsString("xpathToFile");
-					name = "";
-				}
-				catch (Exception e) {
-					TRACE.catching(SIGNATURE, e);
-					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel configuration value cannot be read due to {0}", new Object[] {e.getMessage()});
-				}	
+				config = buildConfig(channel);
+				//dir = channel.getValueAsString("fileOutDir");
+				//name = channel.getValueAsString("fileOutPrefix");
+				if (config != null)
+					dir = ((XIOutboundChannelConfig) config).getXpathToFile();
+				name = "";
 			}
 		}
 		
+		// Inbound channels are polled by the mcf, hence add them to its poll plan. Invalid channels are not polled.
+		if ((channel.getDirection() == Direction.INBOUND) && (config != null) && (mcf != null))
+			mcf.scheduleInboundChannel((XIInboundChannelConfig) config);
+
 		// Trace the new channel; avoid throwing exceptions here, channel errors should be reported in the monitoring
 		TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel with ID {0} for party {1} and service {2} added (direction is {3}, directory: {4}, name: {5}).", 
 			new Object[] {channel.getObjectId(), channel.getParty(), channel.getService(), channel.getDirection().toString(), dir, name}); 
@@ -144,8 +151,19 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 		final String SIGNATURE = "channelUpdated(Channel channel)";
 		TRACE.entering(SIGNATURE);
 		//Performance optimization are possible here but since the number of channels is usually low it has no big impact
-		channelRemoved(channel);
+		if (mcf != null)
+			mcf.invalidateChannel(channel.getObjectId());
+		removeChannel(channel, true);
 		channelAdded(channel);
+		// Keep the HTTP connections of an inbound channel unless its proxy settings were changed
+		// An inbound channel that became invalid is not polled anymore, hence release its connections
+		if ((channel.getDirection() == Direction.INBOUND) && (mcf != null)) {
+			XIInboundChannelConfig config = getInboundConfig(channel.getObjectId());
+			if (config != null)
+				mcf.updateInboundChannel(config);
+			else
+				mcf.releaseInboundChannel(channel.getObjectId());
+		}
 		TRACE.exiting(SIGNATURE);
 	}
 
@@ -155,6 +173,19 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 	public void channelRemoved(Channel channel) {
 		final String SIGNATURE = "channelRemoved(Channel channel)";
 		TRACE.entering(SIGNATURE, new Object[] {channel});
+		if (mcf != null)
+			mcf.invalidateChannel(channel.getObjectId());
+		removeChannel(channel, false);
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Removes a channel from the local lists and informs the mcf
+	 * @param channel Channel to remove
+	 * @param update true if the channel is removed as part of a channel update, i.e. it will be added again
+	 */
+	private void removeChannel(Channel channel, boolean update) {
+		final String SIGNATURE = "removeChannel(Channel channel, boolean update)";
 		LinkedList channels = null;
 
 		TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel with ID {0} for party {1} and service {2} will be removed now. (direction is {3}).", 
@@ -167,14 +198,22 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 		else
 			channels = outboundChannels;
 		
-		// Remove the channel form the local list and inform the mcf in case of outbound (=CCIConnection) channels
-		// This allows the mcf to delete the related CCIConnection as well
+		// Remove the channel form the local list and inform the mcf
+		// In case of inbound channels the mcf stops polling the channel, in case of outbound (=CCIConnection) channels
+		// this allows the mcf to delete the related CCIConnection as well
 		synchronized (this) {
+			channelConfigs.remove(channelID);
+			configErrors.remove(channelID);
 			for (int i = 0; i < channels.size(); i++) {
 				Channel storedChannel = (Channel) channels.get(i);
 				if (storedChannel.getObjectId().equalsIgnoreCase(channelID)) {
 					channels.remove(i);
-					if (channel.getDirection() == Direction.OUTBOUND) {
+					if (channel.getDirection() == Direction.INBOUND) {
+						mcf.unscheduleInboundChannel(channelID);
+						if (!update)
+							mcf.releaseInboundChannel(channelID);
+					}
+					else if (channel.getDirection() == Direction.OUTBOUND) {
 						try {
 							mcf.destroyManagedConnection(channelID);
 						} catch (Exception e) {
@@ -186,7 +225,33 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 				}
 			}
 		}		
-		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Builds the typed configuration of a channel and stores it next to the channel. If the configuration
+	 * is invalid the reason is stored instead and reported by the channel monitor.
+	 * The caller must hold the lock of this object.
+	 * @param channel Inbound or outbound channel
+	 * @return <code>XIInboundChannelConfig</code>, <code>XIOutboundChannelConfig</code> or null if the configuration is invalid
+	 */
+	private Object buildConfig(Channel channel) {
+		final String SIGNATURE = "buildConfig(Channel channel)";
+		String channelID = channel.getObjectId();
+		Object config = null;
+		try {
+			if (channel.getDirection() == Direction.INBOUND)
+				config = new XIInboundChannelConfig(channel);
+			else
+				config = new XIOutboundChannelConfig(channel);
+			channelConfigs.put(channelID, config);
+			configErrors.remove(channelID);
+		} catch (ResourceException e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.errorT(SIGNATURE, XIAdapterCategories.CONFIG, "Configuration of channel {0} is invalid and the channel is not processed: {1}", new Object[] {channelID, e.getMessage()});
+			channelConfigs.remove(channelID);
+			configErrors.put(channelID, e.getMessage());
+		}
+		return config;
 	}
 	// CS_CPACB END
 	
@@ -225,6 +290,8 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 		synchronized(this) {
 			inboundChannels = new LinkedList();
 			outboundChannels = new LinkedList();
+			channelConfigs.clear();
+			configErrors.clear();
 	
 			// First get all channels for this adapter. By using the AAM service it will receive the "started" channels only.
 			//CS_CHINLU START
@@ -235,18 +302,21 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 
 				for (int i = 0; i < allChannels.size(); i++) {
 					Channel channel = (Channel) allChannels.get(i);
+					Object config = null;
 					if (channel.getDirection() == Direction.INBOUND) {
 						inboundChannels.add(channel);
+						config = buildConfig(channel);
 						//dir = channel.getValueAsString("fileInDir");
 						//name = channel.getValueAsString("fileInName");
-						dir = channel.getValueAsString("urlEndpoint");
+						dir = (config != null) ? ((XIInboundChannelConfig) config).getUrlEndpoint() : null;
 						name = "";
 					}
 					else if (channel.getDirection() == Direction.OUTBOUND) {
 						outboundChannels.add(channel);
+						config = buildConfig(channel);
 						//dir = channel.getValueAsString("fileOutDir");
 						//name = channel.getValueAsString("fileOutPrefix");
-						dir = channel.getValueAsString("xpathToFile");
+						dir = (config != null) ? ((XIOutboundChannelConfig) config).getXpathToFile() : null;
 						name = "";
 					}
 					else
@@ -308,6 +378,51 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 		return out;
 	}
 
+	/**
+	 * Get the typed configurations of all inbound channels whose configuration is valid
+	 * @return List of <code>XIInboundChannelConfig</code> objects
+	 * @throws ResourceException if the channel lists cannot be initialized
+	 */
+	public LinkedList getInboundConfigs() throws ResourceException {
+		LinkedList out = new LinkedList();
+		if ((inboundChannels == null) || (outboundChannels == null))
+			init(mcf);
+		synchronized(this) {
+			for (int i = 0; i < inboundChannels.size(); i++) {
+				Object config = channelConfigs.get(((Channel) inboundChannels.get(i)).getObjectId());
+				if (config != null)
+					out.add(config);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @param channelID ID of an inbound channel
+	 * @return Typed configuration of the channel or null if the channel is not known or its configuration is invalid
+	 */
+	public synchronized XIInboundChannelConfig getInboundConfig(String channelID) {
+		Object config = channelConfigs.get(channelID);
+		return (config instanceof XIInboundChannelConfig) ? (XIInboundChannelConfig) config : null;
+	}
+
+	/**
+	 * @param channelID ID of an outbound channel
+	 * @return Typed configuration of the channel or null if the channel is not known or its configuration is invalid
+	 */
+	public synchronized XIOutboundChannelConfig getOutboundConfig(String channelID) {
+		Object config = channelConfigs.get(channelID);
+		return (config instanceof XIOutboundChannelConfig) ? (XIOutboundChannelConfig) config : null;
+	}
+
+	/**
+	 * @param channelID ID of a channel
+	 * @return Reason why the configuration of the channel was rejected or null if it is valid
+	 */
+	public synchronized String getConfigError(String channelID) {
+		return (String) configErrors.get(channelID);
+	}
+
 	/**
 	 * The <code>getChannelStatus()</code> is called by the XI AF administration GUI's to visualize the
 	 * channel status of adapters. The adapter might also propagate processing status information with
@@ -382,13 +497,16 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 		try {
 			// Check directory adapter status of channel is not done anymore since AAM start/stop with channelAdded/Deleted was introduced 
 
+			// The configuration was validated when the channel was added or updated
+			String configError = getConfigError(channelID);
+			if (configError != null) {
+				String text = MessageFormat.format(localizer.localizeString("CHANNEL_CONFIG_ERROR_MSG", locale), new Object[] {configError});
+				cs = csf.createChannelStatus(channel, ChannelState.ERROR, text);
+				TRACE.exiting(SIGNATURE, new Object[] {cs});
+				return cs;
+			}
+
 			if (storedChannel.getDirection() == Direction.INBOUND) {
-				String url = channel.getValueAsString("urlEndpoint");
-				if ((url == null) || (url.length() == 0)) {
-					cs = csf.createChannelStatus(channel, ChannelState.ERROR, "Target URL " + url + " does not exists.");
-					TRACE.exiting(SIGNATURE, new Object[] {cs});
-					return cs;
-				}	
 /*				String directory = channel.getValueAsString("fileInDir");
 				if ((directory == null) || (directory.length() == 0)) {
 					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONFIG, "Unable to determine input file directory. Take default: " + SPIManagedConnectionFactory.IN_DIR);
@@ -413,13 +531,48 @@ public class XIConfiguration implements ChannelLifecycleCallback, ChannelStatusC
 					TRACE.exiting(SIGNATURE, new Object[] {cs});
 					return cs;
 				}
-			} else {
-				String xpath = channel.getValueAsString("xpathToFile");
-				if ((xpath == null) || (xpath.length() == 0)) {
-					cs = csf.createChannelStatus(channel, ChannelState.ERROR, "XPath expression is not set.");
+
+				// A channel in push mode receives data only if the push listener is running and routes its path
+				XIInboundChannelConfig config = getInboundConfig(channelID);
+				if ((config != null) && (config.isPushMode())) {
+					int port = mcf.getPushPort(config);
+					if (port < 0) {
+						String text = MessageFormat.format(localizer.localizeString("CHANNEL_PUSH_DOWN", locale), new Object[] {config.getPushPath()});
+						cs = csf.createChannelStatus(channel, ChannelState.ERROR, text);
+					} else {
+						String text = MessageFormat.format(localizer.localizeString("CHANNEL_OK_PUSH", locale), new Object[] {Integer.toString(port), config.getPushPath()});
+						cs = csf.createChannelStatus(channel, ChannelState.OK, text);
+					}
 					TRACE.exiting(SIGNATURE, new Object[] {cs});
 					return cs;
-				}	
+				}
+
+				// Report the effective poll interval, it changes if the channel uses adaptive polling
+				long pollInterval = mcf.getCurrentPollInterval(channelID);
+				// An endpoint of the channel is down and is not polled till the retry time of its circuit breaker
+				long retryTime = (config != null) ? mcf.getEndpointRetryTime(config) : -1;
+				if ((pollInterval >= 0) && (retryTime > 0)) {
+					String text = MessageFormat.format(localizer.localizeString("CHANNEL_ENDPOINT_DOWN", locale), new Object[] {new Date(retryTime)});
+					cs = csf.createChannelStatus(channel, ChannelState.ERROR, text);
+					TRACE.exiting(SIGNATURE, new Object[] {cs});
+					return cs;
+				}
+				// The polling is slowed down while the XI AF takes over the messages slowly
+				int throttleFactor = mcf.getThrottleFactor();
+				if ((pollInterval >= 0) && (throttleFactor > 1)) {
+					String text = MessageFormat.format(localizer.localizeString("CHANNEL_THROTTLED", locale), 
+						new Object[] {Long.toString(pollInterval / 1000), Integer.toString(throttleFactor), Long.toString(mcf.getDispatchLatency())});
+					cs = csf.createChannelStatus(channel, ChannelState.WARNING, text);
+					TRACE.exiting(SIGNATURE, new Object[] {cs});
+					return cs;
+				}
+				if (pollInterval >= 0) {
+					String text = MessageFormat.format(localizer.localizeString("CHANNEL_OK_POLLING", locale), new Object[] {Long.toString(pollInterval / 1000)});
+					cs = csf.createChannelStatus(channel, ChannelState.OK, text);
+					TRACE.exiting(SIGNATURE, new Object[] {cs});
+					return cs;
+				}
+			} else {
 /*				String directory = channel.getValueAsString("fileOutDir");
 				if ((directory == null) || (directory.length() == 0)) {
 					cs = csf.createChannelStatus(channel, ChannelState.ERROR, "Output file directory name is not set.");
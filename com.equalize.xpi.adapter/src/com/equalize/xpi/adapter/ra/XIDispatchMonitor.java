@@ -0,0 +1,126 @@
+package com.equalize.xpi.adapter.ra;
+
+/**
+ * The <code>XIDispatchMonitor</code> measures how long the XI AF needs to take over the polled messages
+ * (module processor call) and how many dispatches fail. The samples of a sliding window are evaluated
+ * periodically: if the average latency exceeds the threshold or most of the dispatches fail, the
+ * throttle factor is doubled up to its maximum. The poll intervals of all inbound channels are multiplied
+ * with this factor, hence the adapter polls less while the XI AF is saturated. If the latency has dropped
+ * below half of the threshold, the factor is halved again step by step.
+ * (ra implementation specific)
+ **/
+public class XIDispatchMonitor {
+
+	private static final XITrace TRACE = new XITrace(XIDispatchMonitor.class.getName());
+
+	// Maximum number of samples and maximum age of a sample in the sliding window
+	private static final int WINDOW_SIZE = 100;
+	private static final long WINDOW_TIME = 60000;
+	// Minimum number of samples before the failure ratio is taken into account
+	private static final int MIN_FAILURE_SAMPLES = 5;
+
+	private long latencyThreshold = 0;
+	private int maxFactor = 1;
+	private long adjustInterval = 10000;
+
+	// Ring buffer of the samples
+	private long[] timestamps = new long[WINDOW_SIZE];
+	private long[] latencies = new long[WINDOW_SIZE];
+	private boolean[] failures = new boolean[WINDOW_SIZE];
+	private int next = 0;
+	private int count = 0;
+
+	private int factor = 1;
+	private long lastAdjust = 0;
+	private long averageLatency = 0;
+	private int failureCount = 0;
+	private int sampleCount = 0;
+
+	/**
+	 * Creates a monitor
+	 * @param latencyThreshold Average dispatch latency in ms above which the polling is throttled, 0 switches throttling off
+	 * @param maxFactor Maximum factor the poll intervals are multiplied with
+	 * @param adjustInterval Minimum time in ms between two changes of the factor
+	 */
+	public XIDispatchMonitor(long latencyThreshold, int maxFactor, long adjustInterval) {
+		this.latencyThreshold = latencyThreshold;
+		this.maxFactor = (maxFactor > 0) ? maxFactor : 1;
+		this.adjustInterval = adjustInterval;
+	}
+
+	/**
+	 * Records one dispatch
+	 * @param latency Duration of the dispatch in ms
+	 * @param failed true if the dispatch failed
+	 */
+	public synchronized void record(long latency, boolean failed) {
+		timestamps[next] = System.currentTimeMillis();
+		latencies[next] = latency;
+		failures[next] = failed;
+		next = (next + 1) % WINDOW_SIZE;
+		if (count < WINDOW_SIZE)
+			count++;
+	}
+
+	/**
+	 * Evaluates the sliding window and adapts the throttle factor. It must be called periodically,
+	 * also if no messages are dispatched, otherwise a throttled adapter would not recover.
+	 * @return Current throttle factor
+	 */
+	public synchronized int evaluate() {
+		final String SIGNATURE = "evaluate()";
+		long now = System.currentTimeMillis();
+		long sum = 0;
+		sampleCount = 0;
+		failureCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (now - timestamps[i] > WINDOW_TIME)
+				continue;
+			sampleCount++;
+			sum += latencies[i];
+			if (failures[i])
+				failureCount++;
+		}
+		averageLatency = (sampleCount > 0) ? sum / sampleCount : 0;
+
+		if ((latencyThreshold <= 0) || (now - lastAdjust < adjustInterval))
+			return factor;
+
+		int previous = factor;
+		boolean overloaded = (averageLatency > latencyThreshold) || ((sampleCount >= MIN_FAILURE_SAMPLES) && (failureCount * 2 > sampleCount));
+		if (overloaded)
+			factor = Math.min(factor * 2, maxFactor);
+		else if (averageLatency < latencyThreshold / 2)
+			factor = Math.max(factor / 2, 1);
+		lastAdjust = now;
+
+		if (factor > previous)
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "XI AF dispatch is slow (average {0} ms, {1} of {2} failed). Poll intervals are stretched by factor {3}.",
+				new Object[] {Long.toString(averageLatency), Integer.toString(failureCount), Integer.toString(sampleCount), Integer.toString(factor)});
+		else if (factor < previous)
+			TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "XI AF dispatch recovers (average {0} ms). Poll intervals are stretched by factor {1}.",
+				new Object[] {Long.toString(averageLatency), Integer.toString(factor)});
+		return factor;
+	}
+
+	/**
+	 * @return Current throttle factor, 1 if the polling is not throttled
+	 */
+	public synchronized int getThrottleFactor() {
+		return factor;
+	}
+
+	/**
+	 * @return Average dispatch latency in ms as of the last evaluation
+	 */
+	public synchronized long getAverageLatency() {
+		return averageLatency;
+	}
+
+	/**
+	 * @return Short statistic of the monitor for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIDispatchMonitor [samples: " + sampleCount + ", average latency: " + averageLatency + " ms, failures: " + failureCount + ", throttle factor: " + factor + "]";
+	}
+}
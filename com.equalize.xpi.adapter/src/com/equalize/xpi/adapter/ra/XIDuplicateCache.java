@@ -0,0 +1,128 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sap.aii.af.service.idmap.MessageIDMapper;
+
+/**
+ * The <code>XIDuplicateCache</code> detects polled contents that were sent to the XI AF already.
+ * A content is identified by an external ID (e.g. channel ID and content digest) that is stored
+ * in the XI AF <code>MessageIDMapper</code> together with the XI message ID. Since the ID mapper accesses the
+ * DB, the most recently used IDs are kept in an in-memory LRU cache in front of it.
+ * IDs are only added to the LRU cache after the related message was committed, hence a rolled back
+ * message is never treated as a duplicate.
+ * The cached IDs expire like the ID map entries, i.e. after the retention time. Since the remaining
+ * retention of an ID read from the ID mapper is unknown, such an ID is asked again after one hour at the latest.
+ * (ra implementation specific)
+ **/
+public class XIDuplicateCache {
+
+	private static final XITrace TRACE = new XITrace(XIDuplicateCache.class.getName());
+
+	private static final long MAPPER_HIT_LIFETIME = 1000*60*60;
+
+	private MessageIDMapper messageIDMapper = null;
+	private long retention = 0;
+	private Map lru = null;
+
+	// Statistics
+	private long cacheHits = 0;
+	private long mapperHits = 0;
+	private long misses = 0;
+
+	private static class Entry {
+		String xiMsgId;
+		long expiresAt;
+
+		Entry(String xiMsgId, long expiresAt) {
+			this.xiMsgId = xiMsgId;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Creates an empty duplicate cache
+	 * @param messageIDMapper XI AF message ID mapper
+	 * @param capacity Maximum number of IDs kept in memory
+	 * @param retention Time in ms an ID is kept, the same as for the ID map entries
+	 */
+	public XIDuplicateCache(MessageIDMapper messageIDMapper, final int capacity, long retention) {
+		this.messageIDMapper = messageIDMapper;
+		this.retention = retention;
+		this.lru = new LinkedHashMap(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Checks whether a content was sent already
+	 * @param extMsgId External ID of the content
+	 * @return XI message ID of the message that contained the content or null if it is no duplicate
+	 */
+	public String getMappedId(String extMsgId) {
+		final String SIGNATURE = "getMappedId(String extMsgId)";
+		synchronized (this) {
+			Entry entry = (Entry) lru.get(extMsgId);
+			if (entry != null) {
+				if (entry.expiresAt > System.currentTimeMillis()) {
+					cacheHits++;
+					return entry.xiMsgId;
+				}
+				lru.remove(extMsgId);
+			}
+		}
+		// Not in memory, ask the ID mapper (outside of the lock since it accesses the DB)
+		String xiMsgId = messageIDMapper.getMappedId(extMsgId);
+		synchronized (this) {
+			if (xiMsgId != null) {
+				mapperHits++;
+				lru.put(extMsgId, new Entry(xiMsgId, System.currentTimeMillis() + Math.min(retention, MAPPER_HIT_LIFETIME)));
+			} else
+				misses++;
+		}
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "ID mapper lookup for {0} returned {1}", new Object[] {extMsgId, xiMsgId});
+		return xiMsgId;
+	}
+
+	/**
+	 * Adds the ID of a content whose message was committed
+	 * @param extMsgId External ID of the content
+	 * @param xiMsgId XI message ID
+	 */
+	public synchronized void put(String extMsgId, String xiMsgId) {
+		lru.put(extMsgId, new Entry(xiMsgId, System.currentTimeMillis() + retention));
+	}
+
+	/**
+	 * @return Number of duplicates found in memory
+	 */
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * @return Number of duplicates found in the XI AF message ID mapper
+	 */
+	public synchronized long getMapperHits() {
+		return mapperHits;
+	}
+
+	/**
+	 * @return Number of checked contents that were no duplicates
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Short statistic of the cache for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIDuplicateCache [size: " + lru.size() + ", cache hits: " + cacheHits + ", mapper hits: " + mapperHits + ", misses: " + misses + "]";
+	}
+}
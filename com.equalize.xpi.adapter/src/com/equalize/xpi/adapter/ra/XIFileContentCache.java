@@ -0,0 +1,125 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>XIFileContentCache</code> keeps the contents of the files retrieved by one outbound channel.
+ * The cache is bounded by the total size of the contents, the least recently used files are evicted first.
+ * Before a cached content is returned it is validated against the current size and modification time
+ * of the file, hence a changed file is read again. Files that were modified within the timestamp resolution
+ * of the file system are not cached since a further change in the same interval could not be detected.
+ * The returned arrays are shared and must not be modified.
+ * (ra implementation specific)
+ **/
+public class XIFileContentCache {
+
+	private static final XITrace TRACE = new XITrace(XIFileContentCache.class.getName());
+
+	// Coarsest modification time resolution of the file systems in use (e.g. FAT, some NFS servers)
+	private static final long MTIME_RESOLUTION = 2000;
+
+	private final long maxBytes;
+	private long totalBytes = 0;
+
+	// Path -> Entry in access order, the least recently used one is evicted first
+	private final Map entries = new LinkedHashMap(16, 0.75f, true);
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	private static class Entry {
+		final byte[] content;
+		final long lastModified;
+
+		Entry(byte[] content, long lastModified) {
+			this.content = content;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Creates an empty cache
+	 * @param maxBytes Maximum total size of the cached contents in bytes
+	 */
+	public XIFileContentCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return Maximum total size of the cached contents in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the content of a file, either from the cache or read with <code>XIFileReader</code>
+	 * @param file File to be read
+	 * @param mapThreshold See <code>XIFileReader.read()</code>
+	 * @return Content of the file, must not be modified
+	 * @throws IOException if the file cannot be read
+	 */
+	public byte[] get(File file, long mapThreshold) throws IOException {
+		final String SIGNATURE = "get(File file, long mapThreshold)";
+		String path = file.getPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		synchronized (this) {
+			Entry entry = (Entry) entries.get(path);
+			if (entry != null) {
+				if ((entry.lastModified == lastModified) && (entry.content.length == length)) {
+					hits++;
+					return entry.content;
+				}
+				entries.remove(path);
+				totalBytes -= entry.content.length;
+				invalidations++;
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "File {0} was changed. Cached content dropped.", new Object[] {path});
+			}
+			misses++;
+		}
+
+		// Read outside the lock, concurrent misses of the same file read it in parallel
+		byte[] content = XIFileReader.read(file, mapThreshold);
+		if ((content.length > maxBytes) || (lastModified == 0) || (System.currentTimeMillis() - lastModified < MTIME_RESOLUTION))
+			return content;
+		// The file must not have been changed while it was read
+		if ((file.lastModified() != lastModified) || (file.length() != content.length))
+			return content;
+		synchronized (this) {
+			Entry old = (Entry) entries.put(path, new Entry(content, lastModified));
+			if (old != null)
+				totalBytes -= old.content.length;
+			totalBytes += content.length;
+			for (Iterator it = entries.values().iterator(); (totalBytes > maxBytes) && it.hasNext();) {
+				Entry eldest = (Entry) it.next();
+				it.remove();
+				totalBytes -= eldest.content.length;
+				evictions++;
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * Drops all cached contents
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	/**
+	 * @return Short statistic of the cache for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIFileContentCache [files: " + entries.size() + ", bytes: " + totalBytes + " of " + maxBytes + ", hits: " + hits + ", misses: " + misses 
+			+ ", evictions: " + evictions + ", invalidations: " + invalidations + "]";
+	}
+}
@@ -0,0 +1,77 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The <code>XIFileReader</code> reads a file into a byte array that is allocated once with the file size.
+ * Small files are read with <code>FileChannel.read()</code>, files of at least the map threshold are
+ * memory-mapped and copied from the mapping, hence no intermediate buffers are filled on the heap.
+ * The file is always closed before <code>read()</code> returns.
+ * (ra implementation specific)
+ **/
+public class XIFileReader {
+
+	private static final XITrace TRACE = new XITrace(XIFileReader.class.getName());
+
+	// Largest array that can be allocated safely
+	private static final long MAX_FILE_SIZE = Integer.MAX_VALUE - 8;
+
+	private static long filesRead = 0;
+	private static long filesMapped = 0;
+	private static long bytesRead = 0;
+
+	/**
+	 * Reads a file completely
+	 * @param file File to be read
+	 * @param mapThreshold Files of at least this size in bytes are memory-mapped, 0 switches the mapping off
+	 * @return Content of the file
+	 * @throws IOException if the file cannot be read, is too large or was truncated while reading
+	 */
+	public static byte[] read(File file, long mapThreshold) throws IOException {
+		final String SIGNATURE = "read(File file, long mapThreshold)";
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > MAX_FILE_SIZE)
+				throw new IOException("File " + file.getPath() + " is too large: " + size + " bytes");
+			byte[] content = new byte[(int) size];
+			boolean mapped = (mapThreshold > 0) && (size >= mapThreshold);
+			if (mapped) {
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, size).get(content);
+			} else {
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0)
+						throw new IOException("File " + file.getPath() + " was truncated while reading (" + buffer.position() + " of " + size + " bytes)");
+				}
+			}
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "File {0} read ({1} bytes, mapped: {2}).", 
+				new Object[] {file.getPath(), Long.toString(size), Boolean.toString(mapped)});
+			synchronized (XIFileReader.class) {
+				filesRead++;
+				if (mapped)
+					filesMapped++;
+				bytesRead += size;
+			}
+			return content;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				TRACE.catching(SIGNATURE, e);
+			}
+		}
+	}
+
+	/**
+	 * @return Short statistic of the file reads for trace purposes
+	 */
+	public static synchronized String getStatistics() {
+		return "XIFileReader [files: " + filesRead + ", mapped: " + filesMapped + ", bytes: " + bytesRead + "]";
+	}
+}
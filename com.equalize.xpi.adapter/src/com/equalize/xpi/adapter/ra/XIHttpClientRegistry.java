@@ -0,0 +1,199 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.sap.httpclient.HostConfiguration;
+import com.sap.httpclient.HttpClient;
+import com.sap.httpclient.MultiThreadedHttpConnectionManager;
+import com.sap.httpclient.auth.AuthScope;
+import com.sap.httpclient.auth.UserPassCredentials;
+
+/**
+ * The <code>XIHttpClientRegistry</code> keeps one HTTP client per inbound channel.
+ * Each client has its own bounded pool of persistent (keep-alive) connections, hence consecutive polls
+ * of a channel reuse the TCP and TLS connections to the token and the data endpoint.
+ * The clients are thread safe, i.e. they might be used by the polling and the token refresh at the same time.
+ * A client is built with the proxy settings of the channel and is only rebuilt if those settings are changed
+ * by a channel update. It is torn down when the channel is removed.
+ * The clients are leased: a client that is replaced or removed while a request uses it is retired and
+ * only torn down when its last lease is released.
+ * (ra implementation specific)
+ **/
+public class XIHttpClientRegistry {
+
+	private static final XITrace TRACE = new XITrace(XIHttpClientRegistry.class.getName());
+
+	// Connection pool limits of one channel client. A channel talks to the token and the data endpoint.
+	private static final int MAX_CONNECTIONS_PER_HOST = 2;
+	private static final int MAX_TOTAL_CONNECTIONS = 4;
+
+	// Channel clients (channel ID -> ClientEntry)
+	private Map clients = new HashMap();
+	// Replaced or removed clients that are still leased (ClientEntry)
+	private List retired = new ArrayList();
+
+	/**
+	 * Leases the client of a channel. The client is created if the channel has none yet.
+	 * Each lease must be released with <code>releaseClient</code> when the request is finished.
+	 * @param channelID ID of the channel
+	 * @param useProxy true if the channel connects via a proxy
+	 * @param proxyhost Proxy host
+	 * @param proxyport Proxy port
+	 * @param proxyuser Proxy user
+	 * @param proxypwd Proxy password
+	 * @return HTTP client of the channel
+	 */
+	public synchronized HttpClient getClient(String channelID, boolean useProxy, String proxyhost, int proxyport, String proxyuser, String proxypwd) {
+		final String SIGNATURE = "getClient(String channelID, boolean useProxy, String proxyhost, int proxyport, String proxyuser, String proxypwd)";
+		ClientEntry entry = (ClientEntry) clients.get(channelID);
+		if (entry == null) {
+			entry = createClient(useProxy, proxyhost, proxyport, proxyuser, proxypwd);
+			clients.put(channelID, entry);
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "HTTP client for channel {0} created.", new Object[] {channelID});
+		}
+		entry.leases++;
+		return entry.client;
+	}
+
+	/**
+	 * Releases a lease of <code>getClient</code>. A retired client is torn down with its last lease.
+	 * @param channelID ID of the channel
+	 * @param client HTTP client that was leased
+	 */
+	public synchronized void releaseClient(String channelID, HttpClient client) {
+		final String SIGNATURE = "releaseClient(String channelID, HttpClient client)";
+		ClientEntry entry = (ClientEntry) clients.get(channelID);
+		if ((entry != null) && (entry.client == client)) {
+			entry.leases--;
+			return;
+		}
+		for (Iterator it = retired.iterator(); it.hasNext();) {
+			entry = (ClientEntry) it.next();
+			if (entry.client == client) {
+				if (--entry.leases <= 0) {
+					it.remove();
+					entry.connectionManager.shutdown();
+					TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Retired HTTP client of channel {0} was torn down.", new Object[] {channelID});
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks the proxy settings of an updated channel. If they were changed the client of the channel
+	 * is replaced by a client with the new settings. The old client is torn down when it is not leased anymore.
+	 * @param channelID ID of the channel
+	 * @param useProxy true if the channel connects via a proxy
+	 * @param proxyhost Proxy host
+	 * @param proxyport Proxy port
+	 * @param proxyuser Proxy user
+	 * @param proxypwd Proxy password
+	 */
+	public synchronized void update(String channelID, boolean useProxy, String proxyhost, int proxyport, String proxyuser, String proxypwd) {
+		final String SIGNATURE = "update(String channelID, boolean useProxy, String proxyhost, int proxyport, String proxyuser, String proxypwd)";
+		ClientEntry entry = (ClientEntry) clients.get(channelID);
+		if ((entry != null) && (!entry.settings.equals(getSettings(useProxy, proxyhost, proxyport, proxyuser, proxypwd)))) {
+			// Swap first, hence a request that still holds the old configuration gets the new client as well
+			clients.put(channelID, createClient(useProxy, proxyhost, proxyport, proxyuser, proxypwd));
+			retire(entry);
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Proxy settings of channel {0} were changed. The HTTP client was rebuilt.", new Object[] {channelID});
+		}
+	}
+
+	/**
+	 * Tears down the client of a channel and closes its connections
+	 * @param channelID ID of the channel
+	 */
+	public synchronized void remove(String channelID) {
+		final String SIGNATURE = "remove(String channelID)";
+		ClientEntry entry = (ClientEntry) clients.remove(channelID);
+		if (entry != null) {
+			retire(entry);
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "HTTP client for channel {0} was removed.", new Object[] {channelID});
+		}
+	}
+
+	/**
+	 * Closes the connections of all clients that were not used for the given time
+	 * @param idleTimeout Idle time in milliseconds
+	 */
+	public synchronized void closeIdleConnections(long idleTimeout) {
+		Iterator it = clients.values().iterator();
+		while (it.hasNext())
+			((ClientEntry) it.next()).connectionManager.closeIdleConnections(idleTimeout);
+	}
+
+	/**
+	 * Tears down all clients, including the retired ones
+	 */
+	public synchronized void clear() {
+		Iterator it = clients.values().iterator();
+		while (it.hasNext())
+			((ClientEntry) it.next()).connectionManager.shutdown();
+		clients.clear();
+		it = retired.iterator();
+		while (it.hasNext())
+			((ClientEntry) it.next()).connectionManager.shutdown();
+		retired.clear();
+	}
+
+	/**
+	 * @return Short statistic of the registry for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIHttpClientRegistry [clients: " + clients.size() + ", retired: " + retired.size() + "]";
+	}
+
+	private void retire(ClientEntry entry) {
+		if (entry.leases <= 0)
+			entry.connectionManager.shutdown();
+		else
+			retired.add(entry);
+	}
+
+	private ClientEntry createClient(boolean useProxy, String proxyhost, int proxyport, String proxyuser, String proxypwd) {
+		MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+		connectionManager.setMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+		connectionManager.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+		HttpClient client = new HttpClient(connectionManager);
+		// Set proxy details
+		if (useProxy) {
+			HostConfiguration hostConfig = new HostConfiguration();
+
+			hostConfig.setProxy(proxyhost, proxyport);
+			client.setHostConfiguration(hostConfig);
+
+			AuthScope ourScope = new AuthScope(proxyhost, proxyport, "realm");
+			UserPassCredentials userPass = new UserPassCredentials(proxyuser, proxypwd);
+			client.getState().setCredentials(ourScope, userPass);
+		}
+		return new ClientEntry(client, connectionManager, getSettings(useProxy, proxyhost, proxyport, proxyuser, proxypwd));
+	}
+
+	private String getSettings(boolean useProxy, String proxyhost, int proxyport, String proxyuser, String proxypwd) {
+		if (!useProxy)
+			return "";
+		return proxyhost + "|" + proxyport + "|" + proxyuser + "|" + proxypwd;
+	}
+
+	/**
+	 * Client of one channel together with the settings it was built with
+	 */
+	private static class ClientEntry {
+		HttpClient client;
+		MultiThreadedHttpConnectionManager connectionManager;
+		String settings;
+		int leases = 0;
+
+		ClientEntry(HttpClient client, MultiThreadedHttpConnectionManager connectionManager, String settings) {
+			this.client = client;
+			this.connectionManager = connectionManager;
+			this.settings = settings;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.sap.httpclient.Header;
+import com.sap.httpclient.http.methods.GET;
+
+/**
+ * The <code>XIHttpResponse</code> holds the response of a polled HTTP endpoint.
+ * The response body is read from the response stream directly into one byte array that is handed over
+ * to the XI payload as is, i.e. the body keeps the original bytes and charset of the endpoint.
+ * If the endpoint sends a Content-Length the array is allocated with the exact size once, otherwise
+ * the body is collected in fixed-size chunks that are copied once into the array of the exact size.
+ * Optionally a digest of the body is calculated while it is read, e.g. for the duplicate check.
+ * (ra implementation specific)
+ **/
+public class XIHttpResponse {
+
+	// Chunk size if the response has no Content-Length
+	private static final int CHUNK_SIZE = 65536;
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private int statusCode;
+	private String contentType;
+	private String eTag;
+	private String lastModified;
+	private byte[] content;
+	private String digest;
+
+	/**
+	 * Reads the status, the content type and the body of an executed GET request
+	 * @param httpGet Executed request, the caller has to release its connection
+	 * @return Response of the request
+	 * @throws IOException if the response body cannot be read
+	 */
+	public static XIHttpResponse read(GET httpGet) throws IOException {
+		return read(httpGet, false);
+	}
+
+	/**
+	 * Reads the status, the content type and the body of an executed GET request
+	 * @param httpGet Executed request, the caller has to release its connection
+	 * @param calculateDigest true if the digest of the body has to be calculated
+	 * @return Response of the request
+	 * @throws IOException if the response body cannot be read
+	 */
+	public static XIHttpResponse read(GET httpGet, boolean calculateDigest) throws IOException {
+		XIHttpResponse response = new XIHttpResponse();
+		response.statusCode = httpGet.getStatusCode();
+		Header contentTypeHeader = httpGet.getResponseHeader("Content-Type");
+		if (contentTypeHeader != null)
+			response.contentType = contentTypeHeader.getValue();
+		Header eTagHeader = httpGet.getResponseHeader("ETag");
+		if (eTagHeader != null)
+			response.eTag = eTagHeader.getValue();
+		Header lastModifiedHeader = httpGet.getResponseHeader("Last-Modified");
+		if (lastModifiedHeader != null)
+			response.lastModified = lastModifiedHeader.getValue();
+		InputStream in = httpGet.getResponseBodyAsStream();
+		MessageDigest md = null;
+		if (calculateDigest && (in != null)) {
+			try {
+				md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException("Digest algorithm " + DIGEST_ALGORITHM + " is not available");
+			}
+			in = new DigestInputStream(in, md);
+		}
+		response.content = readBody(in, httpGet.getResponseContentLength());
+		if (md != null)
+			response.digest = DatatypeConverter.printHexBinary(md.digest());
+		return response;
+	}
+
+	/**
+	 * @return HTTP status code of the response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return Content type of the response including the charset or null if the endpoint did not send one
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return ETag of the response or null if the endpoint did not send one
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return Last-Modified value of the response or null if the endpoint did not send one
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return true if the endpoint answered that the content was not modified (HTTP 304)
+	 */
+	public boolean isNotModified() {
+		return statusCode == 304;
+	}
+
+	/**
+	 * @return Hex encoded SHA-256 digest of the body or null if it was not calculated
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * @return Response body, never null
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	private static byte[] readBody(InputStream in, long contentLength) throws IOException {
+		if (in == null)
+			return new byte[0];
+		try {
+			if ((contentLength >= 0) && (contentLength <= Integer.MAX_VALUE)) {
+				// The size is known, hence read into the final array directly
+				byte[] buffer = new byte[(int) contentLength];
+				int length = 0;
+				while (length < buffer.length) {
+					int read = in.read(buffer, length, buffer.length - length);
+					if (read < 0)
+						throw new IOException("Response body ended after " + length + " of " + contentLength + " bytes");
+					length += read;
+				}
+				return buffer;
+			}
+
+			// Chunked or unknown size: collect full chunks and copy them once into the exact array,
+			// i.e. the body is held at most twice in memory
+			List chunks = new ArrayList();
+			byte[] chunk = new byte[CHUNK_SIZE];
+			int chunkLength = 0;
+			long length = 0;
+			int read;
+			while ((read = in.read(chunk, chunkLength, chunk.length - chunkLength)) >= 0) {
+				chunkLength += read;
+				length += read;
+				if (length > Integer.MAX_VALUE)
+					throw new IOException("Response body exceeds " + Integer.MAX_VALUE + " bytes");
+				if (chunkLength == chunk.length) {
+					chunks.add(chunk);
+					chunk = new byte[CHUNK_SIZE];
+					chunkLength = 0;
+				}
+			}
+			byte[] result = new byte[(int) length];
+			int pos = 0;
+			for (int i = 0; i < chunks.size(); i++) {
+				System.arraycopy((byte[]) chunks.get(i), 0, result, pos, CHUNK_SIZE);
+				pos += CHUNK_SIZE;
+			}
+			System.arraycopy(chunk, 0, result, pos, chunkLength);
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.UnsupportedEncodingException;
+
+import javax.resource.ResourceException;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.xpath.XPathExpressionException;
+
+import com.sap.aii.af.service.cpa.Channel;
+
+/**
+ * The <code>XIInboundChannelConfig</code> is the typed configuration of an inbound (sender) channel.
+ * It is built and validated once by <code>XIConfiguration</code> when the channel is added or updated,
+ * hence the polling and the push processing read no channel attributes anymore. Optional attributes that are not set
+ * (e.g. in channels created with an older adapter metadata version) are replaced by their defaults.
+ * A channel with an invalid configuration is rejected with a <code>ResourceException</code> and is not polled.
+ * The XPath expressions of the channel are compiled here as well, i.e. an invalid expression is rejected once.
+ * The object is immutable, a channel update creates a new one.
+ * (ra implementation specific)
+ **/
+public class XIInboundChannelConfig {
+
+	private static final XITrace TRACE = new XITrace(XIInboundChannelConfig.class.getName());
+
+	// Paging modes of the incremental polling
+	public static final String PAGING_NONE = "none";
+	public static final String PAGING_OFFSET = "offset";
+	public static final String PAGING_TOKEN = "pageToken";
+
+	// Inbound modes: the endpoint is polled or it pushes its data to the push listener
+	public static final String MODE_POLL = "poll";
+	public static final String MODE_PUSH = "push";
+
+	private static final int DEFAULT_TOKEN_LIFETIME = 300;
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int DEFAULT_MAX_PAGES = 100;
+	private static final String DEFAULT_PAGE_RECORD_XPATH = "/*/*";
+
+	private final Channel channel;
+	private final String channelID;
+	private final String inboundMode;
+	private final String pushPath;
+	// Expected Authorization header of the pushed requests (HTTP Basic)
+	private final String pushAuthorization;
+
+	// Endpoints and authorization
+	private final String urlEndpoint;
+	private final String tokenEndpoint;
+	private final String consumerKey;
+	private final String user;
+	private final String pwd;
+	private final int tokenLifetime;
+
+	// Proxy
+	private final boolean useProxy;
+	private final String proxyHost;
+	private final int proxyPort;
+	private final String proxyUser;
+	private final String proxyPwd;
+
+	// Poll plan, intervals in ms (-1 or 0 if not set)
+	private final long pollInterval;
+	private final boolean adaptivePolling;
+	private final long minPollInterval;
+	private final long maxPollInterval;
+
+	// Incremental polling
+	private final String pagingMode;
+	private final XIXPathEvaluator watermarkEvaluator;
+	// Records of a page, a page without records ends the run (default: the children of the root element)
+	private final XIXPathEvaluator pageRecordEvaluator;
+	private final boolean pageRecordXPathSet;
+	private final XIXPathEvaluator nextPageTokenEvaluator;
+	private final String initialWatermark;
+	private final int pageSize;
+	private final int maxPagesPerPoll;
+
+	// Message creation
+	private final boolean duplicateCheck;
+	private final String splitRecord;
+	private final int recordsPerMessage;
+	private final String sequenceId;
+	private final int transactionBatchSize;
+	private final int auditLevel;
+
+	/**
+	 * Reads and validates the configuration of an inbound channel
+	 * @param channel Inbound channel
+	 * @throws ResourceException if a mandatory attribute is not set or an attribute has an invalid value
+	 */
+	public XIInboundChannelConfig(Channel channel) throws ResourceException {
+		final String SIGNATURE = "XIInboundChannelConfig(Channel channel)";
+		this.channel = channel;
+		this.channelID = channel.getObjectId();
+
+		String mode = getOptionalString(channel, "inboundMode");
+		if (mode == null)
+			mode = MODE_POLL;
+		if (!(mode.equals(MODE_POLL) || mode.equals(MODE_PUSH)))
+			throw invalid("Inbound mode " + mode + " is not supported");
+		inboundMode = mode;
+		if (isPushMode()) {
+			// A pushing endpoint is not called, hence only the path of the push listener is needed
+			pushPath = getMandatoryString(channel, "pushPath");
+			if (!pushPath.startsWith("/"))
+				throw invalid("Push path " + pushPath + " must start with /");
+			// The listener is reachable from the network, hence anonymous requests are not accepted
+			String pushUser = getMandatoryString(channel, "pushUser");
+			String pushPwd = getMandatoryString(channel, "pushPwd");
+			try {
+				pushAuthorization = "Basic " + DatatypeConverter.printBase64Binary((pushUser + ":" + pushPwd).getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw invalid("Push credentials cannot be encoded: " + e.getMessage());
+			}
+			urlEndpoint = getOptionalString(channel, "urlEndpoint");
+			tokenEndpoint = getOptionalString(channel, "tokenEndpoint");
+		} else {
+			pushPath = null;
+			pushAuthorization = null;
+			urlEndpoint = getMandatoryString(channel, "urlEndpoint");
+			tokenEndpoint = getMandatoryString(channel, "tokenEndpoint");
+		}
+		consumerKey = getString(channel, "consumerKey");
+		user = getString(channel, "user");
+		pwd = getString(channel, "pwd");
+		int lifetime = getInt(channel, "tokenLifetime", -1);
+		if (lifetime <= 0) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine token lifetime of channel {0}. Take default: {1}",
+				new Object[] {channelID, Integer.toString(DEFAULT_TOKEN_LIFETIME)});
+			lifetime = DEFAULT_TOKEN_LIFETIME;
+		}
+		tokenLifetime = lifetime;
+
+		useProxy = getBoolean(channel, "useProxy");
+		proxyHost = getString(channel, "proxyhost");
+		proxyPort = getInt(channel, "proxyport", 0);
+		proxyUser = getString(channel, "proxyuser");
+		proxyPwd = getString(channel, "proxypwd");
+		if (useProxy && ((proxyHost == null) || (proxyHost.length() == 0)))
+			throw invalid("Proxy host is not set");
+		if (useProxy && (proxyPort <= 0))
+			throw invalid("Proxy port " + proxyPort + " is invalid");
+
+		pollInterval = getInt(channel, "pollInterval", -1) * 1000L;
+		adaptivePolling = getBoolean(channel, "adaptivePolling");
+		minPollInterval = getInt(channel, "minPollInterval", 0) * 1000L;
+		maxPollInterval = getInt(channel, "maxPollInterval", 0) * 1000L;
+
+		mode = getOptionalString(channel, "pagingMode");
+		if (mode == null)
+			mode = PAGING_NONE;
+		if (!(mode.equals(PAGING_NONE) || mode.equals(PAGING_OFFSET) || mode.equals(PAGING_TOKEN)))
+			throw invalid("Paging mode " + mode + " is not supported");
+		pagingMode = mode;
+		watermarkEvaluator = compile(getOptionalString(channel, "watermarkXPath"));
+		initialWatermark = getString(channel, "initialWatermark");
+		String tokenXPath = getOptionalString(channel, "nextPageTokenXPath");
+		if (pagingMode.equals(PAGING_TOKEN) && (tokenXPath == null))
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "No XPath for the next page token of channel {0}. Only the first page is polled.", new Object[] {channelID});
+		nextPageTokenEvaluator = compile(tokenXPath);
+		String recordXPath = getOptionalString(channel, "pageRecordXPath");
+		pageRecordXPathSet = (recordXPath != null);
+		pageRecordEvaluator = compile(pageRecordXPathSet ? recordXPath : DEFAULT_PAGE_RECORD_XPATH);
+		int size = getInt(channel, "pageSize", DEFAULT_PAGE_SIZE);
+		pageSize = (size > 0) ? size : DEFAULT_PAGE_SIZE;
+		int pages = getInt(channel, "maxPagesPerPoll", DEFAULT_MAX_PAGES);
+		maxPagesPerPoll = (pages > 0) ? pages : DEFAULT_MAX_PAGES;
+
+		duplicateCheck = getBoolean(channel, "duplicateCheck");
+		splitRecord = getOptionalString(channel, "splitRecord");
+		if ((splitRecord != null) && (!isRecord(splitRecord)))
+			throw invalid("Split record " + splitRecord + " is neither a local name nor an absolute path of local names");
+		recordsPerMessage = getInt(channel, "recordsPerMessage", 1);
+		String queue = null;
+		if (getBoolean(channel, "splitEOIO")) {
+			queue = getOptionalString(channel, "eoioQueue");
+			if (queue == null)
+				queue = channelID.substring(0, Math.min(16, channelID.length()));
+		}
+		sequenceId = queue;
+		int batchSize = getInt(channel, "transactionBatchSize", 1);
+		transactionBatchSize = (batchSize > 0) ? batchSize : 1;
+		auditLevel = XIAuditWriter.getLevel(channel);
+	}
+
+	private ResourceException invalid(String reason) {
+		final String SIGNATURE = "invalid(String reason)";
+		ResourceException re = new ResourceException(reason);
+		TRACE.throwing(SIGNATURE, re);
+		return re;
+	}
+
+	// Not shared via getEvaluator(), a channel update compiles the expression again
+	private XIXPathEvaluator compile(String expression) throws ResourceException {
+		final String SIGNATURE = "compile(String expression)";
+		if (expression == null)
+			return null;
+		try {
+			return new XIXPathEvaluator(expression);
+		} catch (XPathExpressionException e) {
+			TRACE.catching(SIGNATURE, e);
+			throw invalid("XPath expression " + expression + " is invalid: " + e.getMessage());
+		}
+	}
+
+	// Checks the syntax of XIRecordSplitter: a local name (e.g. Record) or /Response/Records/Record
+	private static boolean isRecord(String record) {
+		String path = record.startsWith("/") ? record.substring(1) : record;
+		if (path.length() == 0)
+			return false;
+		String[] names = path.split("/", -1);
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if ((name.length() == 0) || (!Character.isLetter(name.charAt(0)) && (name.charAt(0) != '_')))
+				return false;
+			for (int j = 1; j < name.length(); j++) {
+				char c = name.charAt(j);
+				if (!Character.isLetterOrDigit(c) && (c != '_') && (c != '-') && (c != '.'))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private String getMandatoryString(Channel channel, String name) throws ResourceException {
+		String value = getOptionalString(channel, name);
+		if (value == null)
+			throw invalid("Channel attribute " + name + " is not set");
+		return value;
+	}
+
+	// Returns null for attributes that are not set or empty
+	private static String getOptionalString(Channel channel, String name) {
+		String value = getString(channel, name);
+		return ((value == null) || (value.length() == 0)) ? null : value;
+	}
+
+	private static String getString(Channel channel, String name) {
+		final String SIGNATURE = "getString(Channel channel, String name)";
+		try {
+			return channel.getValueAsString(name);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			return null;
+		}
+	}
+
+	private static int getInt(Channel channel, String name, int defaultValue) {
+		final String SIGNATURE = "getInt(Channel channel, String name, int defaultValue)";
+		try {
+			return channel.getValueAsInt(name);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			return defaultValue;
+		}
+	}
+
+	private static boolean getBoolean(Channel channel, String name) {
+		final String SIGNATURE = "getBoolean(Channel channel, String name)";
+		try {
+			return channel.getValueAsBoolean(name);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			return false;
+		}
+	}
+
+	public Channel getChannel() {
+		return channel;
+	}
+
+	public String getChannelID() {
+		return channelID;
+	}
+
+	/**
+	 * @return true if the endpoint pushes its data to the push listener instead of being polled
+	 */
+	public boolean isPushMode() {
+		return inboundMode.equals(MODE_PUSH);
+	}
+
+	/**
+	 * @return Request path of the push listener that is routed to this channel or null in poll mode
+	 */
+	public String getPushPath() {
+		return pushPath;
+	}
+
+	/**
+	 * @return Authorization header value (HTTP Basic) that the pushed requests must carry or null in poll mode
+	 */
+	public String getPushAuthorization() {
+		return pushAuthorization;
+	}
+
+	/**
+	 * @return Polled URL, might be null in push mode
+	 */
+	public String getUrlEndpoint() {
+		return urlEndpoint;
+	}
+
+	public String getTokenEndpoint() {
+		return tokenEndpoint;
+	}
+
+	public String getConsumerKey() {
+		return consumerKey;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getPwd() {
+		return pwd;
+	}
+
+	/**
+	 * @return Token lifetime in seconds
+	 */
+	public int getTokenLifetime() {
+		return tokenLifetime;
+	}
+
+	public boolean isUseProxy() {
+		return useProxy;
+	}
+
+	public String getProxyHost() {
+		return proxyHost;
+	}
+
+	public int getProxyPort() {
+		return proxyPort;
+	}
+
+	public String getProxyUser() {
+		return proxyUser;
+	}
+
+	public String getProxyPwd() {
+		return proxyPwd;
+	}
+
+	/**
+	 * @return Configured poll interval in ms, not positive if not set
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	public boolean isAdaptivePolling() {
+		return adaptivePolling;
+	}
+
+	/**
+	 * @return Minimum poll interval of the adaptive polling in ms, 0 if not set
+	 */
+	public long getMinPollInterval() {
+		return minPollInterval;
+	}
+
+	/**
+	 * @return Maximum poll interval of the adaptive polling in ms, 0 if not set
+	 */
+	public long getMaxPollInterval() {
+		return maxPollInterval;
+	}
+
+	/**
+	 * @return One of the <code>PAGING_</code> constants
+	 */
+	public String getPagingMode() {
+		return pagingMode;
+	}
+
+	/**
+	 * @return true if the channel polls page by page or with a watermark
+	 */
+	public boolean isIncremental() {
+		return (!pagingMode.equals(PAGING_NONE)) || (watermarkEvaluator != null);
+	}
+
+	/**
+	 * @return Compiled XPath of the watermark or null if not set
+	 */
+	public XIXPathEvaluator getWatermarkEvaluator() {
+		return watermarkEvaluator;
+	}
+
+	/**
+	 * @return Compiled XPath of the next page token or null if not set
+	 */
+	public XIXPathEvaluator getNextPageTokenEvaluator() {
+		return nextPageTokenEvaluator;
+	}
+
+	/**
+	 * @return Compiled XPath of the records of a page, the children of the root element if the channel does not define one
+	 */
+	public XIXPathEvaluator getPageRecordEvaluator() {
+		return pageRecordEvaluator;
+	}
+
+	/**
+	 * @return true if the channel defines the XPath of the records, i.e. a page with less than pageSize records is the last one
+	 */
+	public boolean isPageRecordXPathSet() {
+		return pageRecordXPathSet;
+	}
+
+	public String getInitialWatermark() {
+		return initialWatermark;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getMaxPagesPerPoll() {
+		return maxPagesPerPoll;
+	}
+
+	public boolean isDuplicateCheck() {
+		return duplicateCheck;
+	}
+
+	/**
+	 * @return Record element the polled content is split at or null if it is sent as one message
+	 */
+	public String getSplitRecord() {
+		return splitRecord;
+	}
+
+	public int getRecordsPerMessage() {
+		return recordsPerMessage;
+	}
+
+	/**
+	 * @return EOIO queue of the split parts or null if they are sent EO
+	 */
+	public String getSequenceId() {
+		return sequenceId;
+	}
+
+	public int getTransactionBatchSize() {
+		return transactionBatchSize;
+	}
+
+	/**
+	 * @return One of the <code>XIAuditWriter.LEVEL_</code> constants
+	 */
+	public int getAuditLevel() {
+		return auditLevel;
+	}
+
+	/**
+	 * @return Short description of the configuration for trace purposes, passwords are not included
+	 */
+	public String toString() {
+		if (isPushMode())
+			return "XIInboundChannelConfig [channel: " + channelID + ", push path: " + pushPath + "]";
+		return "XIInboundChannelConfig [channel: " + channelID + ", url: " + urlEndpoint + ", paging: " + pagingMode + ", poll interval: " + pollInterval + " ms]";
+	}
+}
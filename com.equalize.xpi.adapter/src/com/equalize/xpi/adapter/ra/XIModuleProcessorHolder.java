@@ -0,0 +1,133 @@
+package com.equalize.xpi.adapter.ra;
+
+import javax.ejb.NoSuchObjectLocalException;
+
+import com.sap.aii.af.lib.mp.module.ModuleData;
+import com.sap.aii.af.lib.mp.processor.ModuleProcessor;
+import com.sap.aii.af.lib.mp.processor.ModuleProcessorFactory;
+
+/**
+ * The <code>XIModuleProcessorHolder</code> keeps the local reference to the XI AF module processor bean
+ * of one MCF, hence the bean is not looked up for each message anymore.
+ * If the module processor application is restarted the cached reference becomes stale and the container
+ * throws a <code>NoSuchObjectLocalException</code> before the bean is invoked. In that case the reference
+ * is dropped, looked up again and the call is repeated once.
+ * The lookup itself must run in a J2EE application thread, see <code>SPIManagedConnectionFactory.run()</code>.
+ * (ra implementation specific)
+ **/
+public class XIModuleProcessorHolder {
+
+	private static final XITrace TRACE = new XITrace(XIModuleProcessorHolder.class.getName());
+
+	private int waitTime = 1000;
+	private ModuleProcessor moduleProcessor = null;
+
+	// Statistics
+	private long lookups = 0;
+	private long lookupTime = 0;
+	private long lastLookupTime = 0;
+	private long staleReferences = 0;
+
+	/**
+	 * Creates an empty holder, the module processor is looked up with the first access
+	 * @param waitTime Wait time in ms between two lookup retries
+	 */
+	public XIModuleProcessorHolder(int waitTime) {
+		this.waitTime = waitTime;
+	}
+
+	/**
+	 * Returns the cached module processor or looks it up if there is none
+	 * @param retryNum Number of lookup retries
+	 * @return the module processor
+	 * @throws Exception if the module processor bean cannot be accessed
+	 */
+	public ModuleProcessor getModuleProcessor(int retryNum) throws Exception {
+		final String SIGNATURE = "getModuleProcessor(int retryNum)";
+		synchronized (this) {
+			if (moduleProcessor != null)
+				return moduleProcessor;
+		}
+		// The lookup might wait for the bean, hence do not block the other threads meanwhile
+		long start = System.currentTimeMillis();
+		ModuleProcessor mp = ModuleProcessorFactory.getModuleProcessor(true, retryNum, waitTime);
+		long duration = System.currentTimeMillis() - start;
+		synchronized (this) {
+			lookups++;
+			lookupTime += duration;
+			lastLookupTime = duration;
+			if (moduleProcessor == null)
+				moduleProcessor = mp;
+			mp = moduleProcessor;
+		}
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Lookup of XI AF module processor took {0} ms.", new Object[] {Long.toString(duration)});
+		return mp;
+	}
+
+	/**
+	 * Processes a message with the module processor. A stale module processor reference is replaced and
+	 * the call is repeated once.
+	 * @param channelId ID of the channel the message belongs to
+	 * @param md Module data containing the message
+	 * @return Module data returned by the module chain
+	 * @throws Exception if the module processor cannot be accessed or the module chain fails
+	 */
+	public ModuleData process(String channelId, ModuleData md) throws Exception {
+		final String SIGNATURE = "process(String channelId, ModuleData md)";
+		ModuleProcessor mp = getModuleProcessor(1);
+		try {
+			return mp.process(channelId, md);
+		} catch (NoSuchObjectLocalException e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "XI AF module processor reference is stale and is looked up again.");
+			invalidate(mp);
+			return getModuleProcessor(1).process(channelId, md);
+		}
+	}
+
+	/**
+	 * Drops a module processor reference, e.g. after the module processor application was restarted
+	 * @param mp Stale reference, it is only dropped if it is still the cached one
+	 */
+	public synchronized void invalidate(ModuleProcessor mp) {
+		if (moduleProcessor == mp) {
+			moduleProcessor = null;
+			staleReferences++;
+		}
+	}
+
+	/**
+	 * Drops the cached reference
+	 */
+	public synchronized void clear() {
+		moduleProcessor = null;
+	}
+
+	/**
+	 * @return Number of module processor lookups
+	 */
+	public synchronized long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * @return Accumulated duration of all module processor lookups in ms
+	 */
+	public synchronized long getLookupTime() {
+		return lookupTime;
+	}
+
+	/**
+	 * @return Duration of the last module processor lookup in ms
+	 */
+	public synchronized long getLastLookupTime() {
+		return lastLookupTime;
+	}
+
+	/**
+	 * @return Short statistic of the holder for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIModuleProcessorHolder [cached: " + (moduleProcessor != null) + ", lookups: " + lookups + ", lookup time: " + lookupTime + " ms, last lookup time: " + lastLookupTime + " ms, stale references: " + staleReferences + "]";
+	}
+}
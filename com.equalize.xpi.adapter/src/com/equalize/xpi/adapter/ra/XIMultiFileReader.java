@@ -0,0 +1,114 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>XIMultiFileReader</code> reads the files of one request in parallel. The first file is read by
+ * the calling thread, the others are handed over to a bounded worker pool. If the pool is not available or
+ * its queue is full a file is read by the calling thread as well, hence the reading never fails because of
+ * the pool. The total size of the files is checked before any file is read.
+ * (ra implementation specific)
+ **/
+public class XIMultiFileReader {
+
+	private static final XITrace TRACE = new XITrace(XIMultiFileReader.class.getName());
+
+	// Unique keys of the read tasks
+	private static long taskCount = 0;
+
+	private final XIWorkerPool pool;
+	private final XIFileContentCache cache;
+	private final long mapThreshold;
+
+	/**
+	 * @param pool Worker pool that reads the files, may be null
+	 * @param cache File content cache of the channel, may be null
+	 * @param mapThreshold See <code>XIFileReader.read()</code>
+	 */
+	public XIMultiFileReader(XIWorkerPool pool, XIFileContentCache cache, long mapThreshold) {
+		this.pool = pool;
+		this.cache = cache;
+		this.mapThreshold = mapThreshold;
+	}
+
+	/**
+	 * Reads the files
+	 * @param paths Paths of the files
+	 * @param maxTotalBytes Maximum total size of the files in bytes
+	 * @param timeout Maximum time in ms to wait for the files that are read by the pool
+	 * @return Contents of the files in the order of the paths
+	 * @throws IOException if a file cannot be read, the files are too large or the timeout elapsed
+	 */
+	public byte[][] read(String[] paths, long maxTotalBytes, long timeout) throws IOException {
+		final String SIGNATURE = "read(String[] paths, long maxTotalBytes, long timeout)";
+		final File[] files = new File[paths.length];
+		long totalBytes = 0;
+		for (int i = 0; i < paths.length; i++) {
+			files[i] = new File(paths[i]);
+			totalBytes += files[i].length();
+		}
+		if (totalBytes > maxTotalBytes)
+			throw new IOException(paths.length + " files have " + totalBytes + " bytes, more than the allowed " + maxTotalBytes + " bytes");
+
+		final byte[][] contents = new byte[paths.length][];
+		final IOException[] errors = new IOException[paths.length];
+		final CountDownLatch done = new CountDownLatch(paths.length - 1);
+		int callerReads = 0;
+		for (int i = 1; i < paths.length; i++) {
+			final int index = i;
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						contents[index] = readFile(files[index]);
+					} catch (IOException e) {
+						errors[index] = e;
+					} catch (RuntimeException e) {
+						errors[index] = new IOException(files[index].getPath() + ": " + e.toString());
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			if ((pool == null) || (!pool.submit(getTaskKey(), task))) {
+				task.run();
+				callerReads++;
+			}
+		}
+		contents[0] = readFile(files[0]);
+
+		try {
+			if (!done.await(timeout, TimeUnit.MILLISECONDS))
+				throw new IOException("Files were not read within " + timeout + " ms");
+		} catch (InterruptedException e) {
+			TRACE.catching(SIGNATURE, e);
+			throw new IOException("Interrupted while waiting for the files");
+		}
+		for (int i = 1; i < paths.length; i++) {
+			if (errors[i] != null)
+				throw errors[i];
+		}
+
+		// The files may have grown after the size check
+		totalBytes = 0;
+		for (int i = 0; i < contents.length; i++)
+			totalBytes += contents[i].length;
+		if (totalBytes > maxTotalBytes)
+			throw new IOException(paths.length + " files have " + totalBytes + " bytes, more than the allowed " + maxTotalBytes + " bytes");
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "{0} files with {1} bytes read ({2} by the calling thread).", 
+			new Object[] {Integer.toString(paths.length), Long.toString(totalBytes), Integer.toString(callerReads + 1)});
+		return contents;
+	}
+
+	private byte[] readFile(File file) throws IOException {
+		if (cache != null)
+			return cache.get(file, mapThreshold);
+		return XIFileReader.read(file, mapThreshold);
+	}
+
+	private static synchronized String getTaskKey() {
+		return "file:" + (++taskCount);
+	}
+}
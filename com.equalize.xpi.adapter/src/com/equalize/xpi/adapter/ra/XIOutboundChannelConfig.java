@@ -0,0 +1,201 @@
+package com.equalize.xpi.adapter.ra;
+
+import javax.resource.ResourceException;
+import javax.xml.xpath.XPathExpressionException;
+
+import com.sap.aii.af.service.cpa.Channel;
+
+/**
+ * The <code>XIOutboundChannelConfig</code> is the typed configuration of an outbound (receiver) channel.
+ * It is built and validated once by <code>XIConfiguration</code> when the channel is added or updated,
+ * hence the requests read no channel attributes anymore. The XPath expression is compiled here as well,
+ * a channel without or with an invalid XPath expression is rejected with a <code>ResourceException</code>.
+ * The object is immutable, a channel update creates a new one (and thereby a new file content cache).
+ * (ra implementation specific)
+ **/
+public class XIOutboundChannelConfig {
+
+	private static final XITrace TRACE = new XITrace(XIOutboundChannelConfig.class.getName());
+
+	// Fault interface of the synchronous error responses if the channel does not define one
+	private static final String DEFAULT_FAULT_INTERFACE = "XIAFJCASampleFault";
+	private static final String DEFAULT_FAULT_NAMESPACE = "http://sap.com/xi/XI/sample/JCA";
+	// Size of the file content cache in MB if the channel does not define one
+	private static final int DEFAULT_FILE_CACHE_SIZE = 16;
+	// Limits of the multi-file retrieval if the channel does not define them (number of files, MB)
+	private static final int DEFAULT_MAX_FILES = 20;
+	private static final int DEFAULT_MAX_TOTAL_SIZE = 50;
+
+	private final Channel channel;
+	private final String channelID;
+	private final String xpathToFile;
+	private final XIXPathEvaluator xpathEvaluator;
+	private final String faultInterface;
+	private final String faultInterfaceNamespace;
+	private final int auditLevel;
+	// Maximum size of the file content cache in bytes, 0 if the channel does not cache
+	private final long fileCacheSize;
+	// Multi-file retrieval: all files of the XPath node-set are returned, the first one as main document
+	private final boolean multipleFiles;
+	private final int maxFiles;
+	private final long maxTotalSize;
+
+	/**
+	 * Reads and validates the configuration of an outbound channel
+	 * @param channel Outbound channel
+	 * @throws ResourceException if the XPath expression is not set or invalid
+	 */
+	public XIOutboundChannelConfig(Channel channel) throws ResourceException {
+		final String SIGNATURE = "XIOutboundChannelConfig(Channel channel)";
+		this.channel = channel;
+		this.channelID = channel.getObjectId();
+
+		xpathToFile = getString(channel, "xpathToFile");
+		if ((xpathToFile == null) || (xpathToFile.length() == 0)) {
+			ResourceException re = new ResourceException("XPath expression is not set");
+			TRACE.throwing(SIGNATURE, re);
+			throw re;
+		}
+		// Not shared via getEvaluator(), a channel update compiles the expression again
+		try {
+			xpathEvaluator = new XIXPathEvaluator(xpathToFile);
+		} catch (XPathExpressionException e) {
+			TRACE.catching(SIGNATURE, e);
+			ResourceException re = new ResourceException("XPath expression " + xpathToFile + " is invalid: " + e.getMessage());
+			TRACE.throwing(SIGNATURE, re);
+			throw re;
+		}
+		String name = getString(channel, "faultInterface");
+		String namespace = getString(channel, "faultInterfaceNamespace");
+		if ((name == null) || (name.length() == 0)) {
+			name = DEFAULT_FAULT_INTERFACE;
+			namespace = DEFAULT_FAULT_NAMESPACE;
+		}
+		faultInterface = name;
+		faultInterfaceNamespace = namespace;
+		auditLevel = XIAuditWriter.getLevel(channel);
+		if (getBoolean(channel, "enableFileCache")) {
+			int size = getInt(channel, "fileCacheSize", DEFAULT_FILE_CACHE_SIZE);
+			if (size <= 0) {
+				ResourceException re = new ResourceException("Invalid file cache size: " + size + " MB");
+				TRACE.throwing(SIGNATURE, re);
+				throw re;
+			}
+			fileCacheSize = size * 1048576L;
+		} else
+			fileCacheSize = 0;
+		multipleFiles = getBoolean(channel, "retrieveMultipleFiles");
+		if (multipleFiles) {
+			maxFiles = getInt(channel, "maxFiles", DEFAULT_MAX_FILES);
+			int size = getInt(channel, "maxTotalSize", DEFAULT_MAX_TOTAL_SIZE);
+			if ((maxFiles <= 0) || (size <= 0)) {
+				ResourceException re = new ResourceException("Invalid limits of the multi-file retrieval: " + maxFiles + " files, " + size + " MB");
+				TRACE.throwing(SIGNATURE, re);
+				throw re;
+			}
+			maxTotalSize = size * 1048576L;
+		} else {
+			maxFiles = 1;
+			maxTotalSize = 0;
+		}
+	}
+
+	private static int getInt(Channel channel, String name, int defaultValue) {
+		final String SIGNATURE = "getInt(Channel channel, String name, int defaultValue)";
+		try {
+			return channel.getValueAsInt(name);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			return defaultValue;
+		}
+	}
+
+	private static boolean getBoolean(Channel channel, String name) {
+		final String SIGNATURE = "getBoolean(Channel channel, String name)";
+		try {
+			return channel.getValueAsBoolean(name);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			return false;
+		}
+	}
+
+	private static String getString(Channel channel, String name) {
+		final String SIGNATURE = "getString(Channel channel, String name)";
+		try {
+			return channel.getValueAsString(name);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			return null;
+		}
+	}
+
+	public Channel getChannel() {
+		return channel;
+	}
+
+	public String getChannelID() {
+		return channelID;
+	}
+
+	public String getXpathToFile() {
+		return xpathToFile;
+	}
+
+	/**
+	 * @return Compiled XPath expression of the channel, it can be used by concurrent requests
+	 */
+	public XIXPathEvaluator getXpathEvaluator() {
+		return xpathEvaluator;
+	}
+
+	public String getFaultInterface() {
+		return faultInterface;
+	}
+
+	public String getFaultInterfaceNamespace() {
+		return faultInterfaceNamespace;
+	}
+
+	/**
+	 * @return Maximum size of the file content cache in bytes, 0 if the retrieved files are not cached
+	 */
+	public long getFileCacheSize() {
+		return fileCacheSize;
+	}
+
+	/**
+	 * @return true if all files of the XPath node-set are returned, the first one as main document and the others as attachments
+	 */
+	public boolean isMultipleFiles() {
+		return multipleFiles;
+	}
+
+	/**
+	 * @return Maximum number of files of one request
+	 */
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/**
+	 * @return Maximum total size of the files of one request in bytes (multi-file retrieval only)
+	 */
+	public long getMaxTotalSize() {
+		return maxTotalSize;
+	}
+
+	/**
+	 * @return One of the <code>XIAuditWriter.LEVEL_</code> constants
+	 */
+	public int getAuditLevel() {
+		return auditLevel;
+	}
+
+	/**
+	 * @return Short description of the configuration for trace purposes
+	 */
+	public String toString() {
+		return "XIOutboundChannelConfig [channel: " + channelID + ", xpath: " + xpathToFile + "]";
+	}
+}
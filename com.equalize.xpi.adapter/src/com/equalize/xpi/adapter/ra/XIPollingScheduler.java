@@ -0,0 +1,288 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The <code>XIPollingScheduler</code> keeps the poll plan of all inbound (sender) channels.
+ * Every channel fires on its own configured poll interval. The first run of a channel is delayed
+ * by a random start offset so that channels which are added together (e.g. during the adapter start)
+ * do not all poll at the same moment.
+ * A channel that is handed out by <code>getDueChannels()</code> is marked as running and will not be
+ * handed out again before <code>completed()</code> was called for it. Hence a channel never overlaps itself,
+ * even if it is updated via CPA while it is being processed.
+ * A channel with adaptive polling backs off exponentially (up to its maximum interval) as long as its polls
+ * return no new data and returns to its minimum interval as soon as new data arrives.
+ * While the XI AF is saturated the intervals of all channels are stretched by a common throttle factor.
+ * Channels are scheduled with their validated configuration and unscheduled by the XI CPA callbacks in <code>XIConfiguration</code>.
+ * (ra implementation specific)
+ **/
+public class XIPollingScheduler {
+
+	private static final XITrace TRACE = new XITrace(XIPollingScheduler.class.getName());
+
+	// Upper bound of the random start offset of a newly scheduled channel
+	private static final int MAX_START_JITTER = 30000;
+
+	// All scheduled channels (channel ID -> ScheduledChannel) and the IDs of the channels that are processed right now
+	private Map scheduledChannels = new HashMap();
+	private Set runningChannels = new HashSet();
+
+	private Random random = new Random();
+	private long defaultInterval;
+	private int throttleFactor = 1;
+
+	/**
+	 * Creates an empty poll plan
+	 * @param defaultInterval Poll interval in milliseconds that is used if a channel has no valid poll interval
+	 */
+	public XIPollingScheduler(long defaultInterval) {
+		this.defaultInterval = defaultInterval;
+	}
+
+	/**
+	 * Adds a channel to the poll plan or replaces it if it is scheduled already.
+	 * The first run takes place after a random start offset within the poll interval.
+	 * @param config Configuration of the inbound channel to schedule
+	 */
+	public synchronized void schedule(XIInboundChannelConfig config) {
+		final String SIGNATURE = "schedule(XIInboundChannelConfig config)";
+		TRACE.entering(SIGNATURE, new Object[] {config});
+
+		long interval = getConfiguredInterval(config);
+		long jitter = random.nextInt((int) Math.min(interval, MAX_START_JITTER) + 1);
+		ScheduledChannel sc = new ScheduledChannel(config, interval, System.currentTimeMillis() + jitter);
+		configureAdaptivePolling(config, sc);
+		scheduledChannels.put(config.getChannelID(), sc);
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel {0} scheduled with poll interval {1} ms (adaptive: {2}, min: {3} ms, max: {4} ms). First run in {5} ms.",
+			new Object[] {config.getChannelID(), Long.toString(interval), Boolean.toString(sc.adaptive), Long.toString(sc.minInterval), Long.toString(sc.maxInterval), Long.toString(jitter)});
+
+		// Wake up the polling thread since the new channel might be due earlier than the others
+		notifyAll();
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Removes a channel from the poll plan. A run that is in progress is not interrupted
+	 * but the channel is not scheduled again afterwards.
+	 * @param channelID ID of the channel to remove
+	 */
+	public synchronized void unschedule(String channelID) {
+		final String SIGNATURE = "unschedule(String channelID)";
+		TRACE.entering(SIGNATURE, new Object[] {channelID});
+		if (scheduledChannels.remove(channelID) != null)
+			TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel {0} was removed from the poll plan.", new Object[] {channelID});
+		notifyAll();
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Removes all channels from the poll plan
+	 */
+	public synchronized void clear() {
+		scheduledChannels.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Returns all channels that are due now and that are not running already. The returned
+	 * channels are marked as running until <code>completed()</code> is called for them.
+	 * @return List of <code>XIInboundChannelConfig</code> objects, might be empty
+	 */
+	public synchronized LinkedList getDueChannels() {
+		LinkedList due = new LinkedList();
+		long now = System.currentTimeMillis();
+		Iterator it = scheduledChannels.values().iterator();
+		while (it.hasNext()) {
+			ScheduledChannel sc = (ScheduledChannel) it.next();
+			String channelID = sc.config.getChannelID();
+			if ((sc.nextRun <= now) && (!runningChannels.contains(channelID))) {
+				runningChannels.add(channelID);
+				due.add(sc.config);
+			}
+		}
+		return due;
+	}
+
+	/**
+	 * Marks a channel run as finished and plans the next run of the channel after its current poll interval
+	 * @param channelID ID of the channel that was processed
+	 */
+	public void completed(String channelID) {
+		completed(channelID, -1);
+	}
+
+	/**
+	 * Marks a channel run as finished and plans the next run of the channel
+	 * @param channelID ID of the channel that was processed
+	 * @param nextDelay Delay in milliseconds till the next run. If negative, the current poll interval of the channel is taken.
+	 */
+	public synchronized void completed(String channelID, long nextDelay) {
+		runningChannels.remove(channelID);
+		ScheduledChannel sc = (ScheduledChannel) scheduledChannels.get(channelID);
+		if (sc != null) {
+			sc.nextRun = System.currentTimeMillis() + ((nextDelay < 0) ? sc.currentInterval * throttleFactor : nextDelay);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Marks a channel run as finished and adapts the poll interval of the channel to the result of the run.
+	 * If adaptive polling is switched on, the interval is reset to the minimum interval if new data was
+	 * received, otherwise it is doubled up to the maximum interval.
+	 * @param channelID ID of the channel that was processed
+	 * @param newData true if the run received new data
+	 * @return Delay in milliseconds till the next run or -1 if the channel is not scheduled anymore
+	 */
+	public synchronized long completed(String channelID, boolean newData) {
+		final String SIGNATURE = "completed(String channelID, boolean newData)";
+		ScheduledChannel sc = (ScheduledChannel) scheduledChannels.get(channelID);
+		if ((sc != null) && (sc.adaptive)) {
+			long previous = sc.currentInterval;
+			if (newData)
+				sc.currentInterval = sc.minInterval;
+			else
+				sc.currentInterval = Math.min(sc.currentInterval * 2, sc.maxInterval);
+			if (previous != sc.currentInterval)
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Poll interval of channel {0} changed from {1} ms to {2} ms.",
+					new Object[] {channelID, Long.toString(previous), Long.toString(sc.currentInterval)});
+		}
+		completed(channelID, -1);
+		return (sc == null) ? -1 : sc.currentInterval * throttleFactor;
+	}
+
+	/**
+	 * Sets the factor the poll intervals of all channels are multiplied with. It is taken into
+	 * account when the next run of a channel is planned.
+	 * @param throttleFactor Factor, 1 if the polling is not throttled
+	 */
+	public synchronized void setThrottleFactor(int throttleFactor) {
+		this.throttleFactor = (throttleFactor > 0) ? throttleFactor : 1;
+	}
+
+	/**
+	 * @return Factor the poll intervals of all channels are multiplied with
+	 */
+	public synchronized int getThrottleFactor() {
+		return throttleFactor;
+	}
+
+	/**
+	 * Returns the configured poll interval of a scheduled channel
+	 * @param channelID ID of the channel
+	 * @return Poll interval in milliseconds or -1 if the channel is not scheduled
+	 */
+	public synchronized long getInterval(String channelID) {
+		ScheduledChannel sc = (ScheduledChannel) scheduledChannels.get(channelID);
+		return (sc == null) ? -1 : sc.interval;
+	}
+
+	/**
+	 * Returns the effective poll interval of a scheduled channel. It differs from the configured
+	 * interval if adaptive polling is switched on or the polling is throttled.
+	 * @param channelID ID of the channel
+	 * @return Current poll interval in milliseconds or -1 if the channel is not scheduled
+	 */
+	public synchronized long getCurrentInterval(String channelID) {
+		ScheduledChannel sc = (ScheduledChannel) scheduledChannels.get(channelID);
+		return (sc == null) ? -1 : sc.currentInterval * throttleFactor;
+	}
+
+	/**
+	 * Blocks the calling (polling) thread till the next channel is due, the poll plan was changed
+	 * or the maximum wait time has elapsed.
+	 * @param maxWait Maximum wait time in milliseconds
+	 * @throws InterruptedException if the waiting thread was interrupted
+	 */
+	public synchronized void waitForDueChannels(long maxWait) throws InterruptedException {
+		long now = System.currentTimeMillis();
+		long wait = maxWait;
+		Iterator it = scheduledChannels.values().iterator();
+		while (it.hasNext()) {
+			ScheduledChannel sc = (ScheduledChannel) it.next();
+			if (!runningChannels.contains(sc.config.getChannelID()))
+				wait = Math.min(wait, sc.nextRun - now);
+		}
+		if (wait > 0) {
+			// $JL-WAIT$ The wait time is deterministic
+			wait(wait);
+		}
+	}
+
+	/**
+	 * Wakes up a thread that is blocked in <code>waitForDueChannels()</code>
+	 */
+	public synchronized void wakeUp() {
+		notifyAll();
+	}
+
+	/**
+	 * Determines the poll interval of a channel in milliseconds
+	 * @param config Configuration of the inbound channel
+	 * @return Configured poll interval or the default interval if not set
+	 */
+	private long getConfiguredInterval(XIInboundChannelConfig config) {
+		final String SIGNATURE = "getConfiguredInterval(XIInboundChannelConfig config)";
+		long interval = config.getPollInterval();
+		if (interval <= 0) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Unable to determine poll interval of channel {0}. Take default: {1} ms",
+				new Object[] {config.getChannelID(), Long.toString(defaultInterval)});
+			interval = defaultInterval;
+		}
+		return interval;
+	}
+
+	/**
+	 * Takes over the adaptive polling settings of a channel. The bounds default to the configured poll interval.
+	 * @param config Configuration of the inbound channel
+	 * @param sc Poll plan entry of the channel
+	 */
+	private void configureAdaptivePolling(XIInboundChannelConfig config, ScheduledChannel sc) {
+		final String SIGNATURE = "configureAdaptivePolling(XIInboundChannelConfig config, ScheduledChannel sc)";
+		sc.adaptive = config.isAdaptivePolling();
+		if (!sc.adaptive)
+			return;
+		sc.minInterval = config.getMinPollInterval();
+		if (config.getMaxPollInterval() > 0)
+			sc.maxInterval = config.getMaxPollInterval();
+		if ((sc.minInterval <= 0) || (sc.minInterval > sc.interval)) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid minimum poll interval for channel {0}. Take poll interval: {1} ms",
+				new Object[] {config.getChannelID(), Long.toString(sc.interval)});
+			sc.minInterval = sc.interval;
+		}
+		if (sc.maxInterval < sc.interval) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Invalid maximum poll interval for channel {0}. Take poll interval: {1} ms",
+				new Object[] {config.getChannelID(), Long.toString(sc.interval)});
+			sc.maxInterval = sc.interval;
+		}
+	}
+
+	/**
+	 * Poll plan entry of one channel
+	 */
+	private static class ScheduledChannel {
+		XIInboundChannelConfig config;
+		long interval;
+		long nextRun;
+
+		// Adaptive polling: bounds and the interval that is used right now
+		boolean adaptive = false;
+		long minInterval;
+		long maxInterval;
+		long currentInterval;
+
+		ScheduledChannel(XIInboundChannelConfig config, long interval, long nextRun) {
+			this.config = config;
+			this.interval = interval;
+			this.nextRun = nextRun;
+			this.minInterval = interval;
+			this.maxInterval = interval;
+			this.currentInterval = interval;
+		}
+	}
+}
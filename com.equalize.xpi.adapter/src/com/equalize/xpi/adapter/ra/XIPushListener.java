@@ -0,0 +1,625 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.sap.aii.af.service.resource.SAPAdapterResources;
+
+/**
+ * The <code>XIPushListener</code> receives the data of the inbound channels with push mode, i.e. the
+ * endpoint sends its data with HTTP POST (e.g. a webhook) instead of being polled.
+ * One application thread runs a non-blocking NIO selector that accepts the connections and reads the
+ * requests. A complete request is routed by its path to the channel and handed over to the worker pool,
+ * which creates and commits the XI messages. Each route carries the credential of its channel (HTTP Basic),
+ * a request without or with a wrong Authorization header is rejected before its body is read.
+ * The response is sent when the handler has returned:
+ * <ul>
+ * <li>202 Accepted: the messages were committed into the XI AF,</li>
+ * <li>500: the messages could not be sent, the sender has to send the data again,</li>
+ * <li>503: more than <code>queueCapacity</code> requests are waiting for the worker pool,</li>
+ * <li>401 if the credential of the channel is missing or wrong,</li>
+ * <li>404, 405, 411, 413 or 400 for requests that cannot be processed at all.</li>
+ * </ul>
+ * Each connection serves one request and is closed afterwards. Connections that do not complete their
+ * request within the idle timeout are closed without response.
+ * XI AF resource adapters MUST NOT use Java native threads, hence the selector thread is taken from the
+ * SAP J2EE application thread pool.
+ * (ra implementation specific)
+ **/
+public class XIPushListener implements Runnable {
+
+	private static final XITrace TRACE = new XITrace(XIPushListener.class.getName());
+
+	/**
+	 * Processes a pushed request (ra implementation specific)
+	 */
+	public interface RequestHandler {
+		/**
+		 * @param channelID ID of the channel the request path is routed to
+		 * @param content Request body
+		 * @param contentType Content type of the request or null
+		 * @return true if the content was committed into the XI AF
+		 * @throws Exception if the content cannot be processed
+		 */
+		boolean handle(String channelID, byte[] content, String contentType) throws Exception;
+	}
+
+	// Time the selector waits before it checks the listener status and the idle connections
+	private static final long SELECT_TIMEOUT = 1000;
+	// Time a connection may need to send its complete request
+	private static final long IDLE_TIMEOUT = 30000;
+	private static final int MAX_HEADER_SIZE = 8192;
+	private static final int READ_BUFFER_SIZE = 16384;
+
+	private SAPAdapterResources msRes = null;
+	private XIWorkerPool workerPool = null;
+	private RequestHandler handler = null;
+	private String bindAddress = null;
+	private int port = 0;
+	private int queueCapacity = 0;
+	private int maxRequestSize = 0;
+
+	// Request path -> Route
+	private Map routes = new HashMap();
+
+	/**
+	 * Channel and expected Authorization header of a request path
+	 */
+	private static class Route {
+		final String channelID;
+		final byte[] authorization;
+
+		Route(String channelID, byte[] authorization) {
+			this.channelID = channelID;
+			this.authorization = authorization;
+		}
+	}
+
+	private Selector selector = null;
+	private ServerSocketChannel server = null;
+	private volatile boolean running = false;
+	private boolean loopActive = false;
+	// Connections whose response was created by a worker and has to be sent by the selector thread
+	private List responses = new LinkedList();
+	private int pending = 0;
+	private long requestCount = 0;
+
+	// Statistics
+	private long accepted = 0;
+	private long committed = 0;
+	private long failed = 0;
+	private long rejected = 0;
+
+	/**
+	 * State of one client connection, used by the selector thread only (besides the response)
+	 */
+	private static class Connection {
+		SocketChannel channel;
+		long lastActivity = System.currentTimeMillis();
+		byte[] data = new byte[1024];
+		int length = 0;
+		int headerEnd = -1;
+		int contentLength = -1;
+		String path = null;
+		String channelID = null;
+		String contentType = null;
+		boolean dispatched = false;
+		ByteBuffer response = null;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void append(ByteBuffer buffer) {
+			int n = buffer.remaining();
+			if (length + n > data.length) {
+				byte[] newData = new byte[Math.max(data.length * 2, length + n)];
+				System.arraycopy(data, 0, newData, 0, length);
+				data = newData;
+			}
+			buffer.get(data, length, n);
+			length += n;
+		}
+	}
+
+	/**
+	 * Creates a listener. It is bound to its port with <code>start()</code>.
+	 * @param msRes XI AF resources that provide the application thread of the selector
+	 * @param workerPool Pool that runs the request handler
+	 * @param handler Handler that creates the XI messages of a request
+	 * @param bindAddress Local address the listener is bound to, null or empty for all interfaces
+	 * @param port TCP port of the listener
+	 * @param queueCapacity Maximum number of requests that wait for or are processed by the worker pool
+	 * @param maxRequestSize Maximum size of a request body in bytes
+	 */
+	public XIPushListener(SAPAdapterResources msRes, XIWorkerPool workerPool, RequestHandler handler, String bindAddress, int port, int queueCapacity, int maxRequestSize) {
+		this.msRes = msRes;
+		this.workerPool = workerPool;
+		this.handler = handler;
+		this.bindAddress = ((bindAddress != null) && (bindAddress.length() > 0)) ? bindAddress : null;
+		this.port = port;
+		this.queueCapacity = (queueCapacity > 0) ? queueCapacity : 1;
+		this.maxRequestSize = maxRequestSize;
+	}
+
+	/**
+	 * Binds the listener to its address and port and starts the selector thread
+	 * @throws Exception if the port cannot be bound or the thread cannot be started
+	 */
+	public synchronized void start() throws Exception {
+		final String SIGNATURE = "start()";
+		TRACE.entering(SIGNATURE);
+		selector = Selector.open();
+		try {
+			server = ServerSocketChannel.open();
+			server.configureBlocking(false);
+			server.socket().setReuseAddress(true);
+			server.socket().bind((bindAddress != null) ? new InetSocketAddress(bindAddress, port) : new InetSocketAddress(port));
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			running = true;
+			loopActive = true;
+			msRes.startRunnable(this);
+		} catch (Exception e) {
+			running = false;
+			loopActive = false;
+			close();
+			throw e;
+		}
+		TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push listener started on {0}:{1}.", 
+			new Object[] {(bindAddress != null) ? bindAddress : "*", Integer.toString(port)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Stops accepting requests and closes the port and all connections. Requests that are processed
+	 * by the worker pool right now are finished but their response cannot be sent anymore.
+	 * @param timeout Maximum time in ms to wait for the selector thread
+	 * @throws InterruptedException if the calling thread was interrupted while waiting
+	 */
+	public synchronized void stop(long timeout) throws InterruptedException {
+		final String SIGNATURE = "stop(long timeout)";
+		TRACE.entering(SIGNATURE);
+		running = false;
+		if (selector != null)
+			selector.wakeup();
+		long end = System.currentTimeMillis() + timeout;
+		long wait = timeout;
+		while (loopActive && (wait > 0)) {
+			// $JL-WAIT$ The wait time is deterministic
+			wait(wait);
+			wait = end - System.currentTimeMillis();
+		}
+		TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push listener on port {0} stopped.", new Object[] {Integer.toString(port)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * @return true if the listener accepts requests
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return TCP port of the listener
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Routes a request path to a channel
+	 * @param path Request path, e.g. <code>/orders</code>
+	 * @param channelID ID of the inbound channel
+	 * @param authorization Authorization header value the requests of the channel must carry
+	 * @return false if the path is routed to another channel already
+	 */
+	public synchronized boolean register(String path, String channelID, String authorization) {
+		Route current = (Route) routes.get(path);
+		if ((current != null) && (!current.channelID.equals(channelID)))
+			return false;
+		routes.put(path, new Route(channelID, getBytes(authorization)));
+		return true;
+	}
+
+	/**
+	 * Removes the route of a channel
+	 * @param channelID ID of the inbound channel
+	 */
+	public synchronized void unregister(String channelID) {
+		for (Iterator it = routes.values().iterator(); it.hasNext();) {
+			if (channelID.equals(((Route) it.next()).channelID))
+				it.remove();
+		}
+	}
+
+	/**
+	 * Removes all routes
+	 */
+	public synchronized void clearRoutes() {
+		routes.clear();
+	}
+
+	/**
+	 * @param path Request path
+	 * @param channelID ID of the inbound channel
+	 * @return true if the path is routed to the channel
+	 */
+	public synchronized boolean isRouted(String path, String channelID) {
+		Route route = (Route) routes.get(path);
+		return (route != null) && channelID.equals(route.channelID);
+	}
+
+	private synchronized Route getRoute(String path) {
+		return (Route) routes.get(path);
+	}
+
+	private static byte[] getBytes(String text) {
+		try {
+			return (text != null) ? text.getBytes("ISO-8859-1") : new byte[0];
+		} catch (IOException e) {
+			return text.getBytes();
+		}
+	}
+
+	/**
+	 * Selector loop (runs in an application thread)
+	 */
+	public void run() {
+		final String SIGNATURE = "run()";
+		String oldThreadName = Thread.currentThread().getName();
+		Thread.currentThread().setName("XI AF EQ Adapter Push Listener " + port);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			while (running) {
+				try {
+					selector.select(SELECT_TIMEOUT);
+					sendResponses();
+					Iterator it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = (SelectionKey) it.next();
+						it.remove();
+						try {
+							if (!key.isValid())
+								continue;
+							if (key.isAcceptable())
+								accept();
+							else if (key.isReadable())
+								read(key, buffer);
+							else if (key.isWritable())
+								write(key);
+						} catch (IOException e) {
+							TRACE.catching(SIGNATURE, e);
+							closeConnection(key);
+						}
+					}
+					closeIdleConnections();
+				} catch (Exception e) {
+					// Keep the listener alive, a single broken connection must not stop it
+					TRACE.catching(SIGNATURE, e);
+					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push listener error: {0}", new Object[] {e.getMessage()});
+				}
+			}
+		} finally {
+			close();
+			synchronized (this) {
+				loopActive = false;
+				notifyAll();
+			}
+			Thread.currentThread().setName(oldThreadName);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+		synchronized (this) {
+			accepted++;
+		}
+	}
+
+	private void read(SelectionKey key, ByteBuffer buffer) throws IOException {
+		Connection conn = (Connection) key.attachment();
+		buffer.clear();
+		int n = conn.channel.read(buffer);
+		if (n < 0) {
+			closeConnection(key);
+			return;
+		}
+		buffer.flip();
+		conn.append(buffer);
+		conn.lastActivity = System.currentTimeMillis();
+
+		if (conn.headerEnd < 0) {
+			conn.headerEnd = findHeaderEnd(conn.data, conn.length);
+			if (conn.headerEnd < 0) {
+				if (conn.length > MAX_HEADER_SIZE)
+					respond(key, 431, "Request header too large");
+				return;
+			}
+			if (!parseHeader(key, conn))
+				return;
+		}
+		if (conn.length - conn.headerEnd < conn.contentLength)
+			return;
+		dispatch(key, conn);
+	}
+
+	/**
+	 * Parses the request line and header. An error response is created if the request cannot be processed.
+	 * @return true if the body can be read
+	 */
+	private boolean parseHeader(SelectionKey key, Connection conn) throws IOException {
+		final String SIGNATURE = "parseHeader(SelectionKey key, Connection conn)";
+		String header = new String(conn.data, 0, conn.headerEnd, "ISO-8859-1");
+		String[] lines = header.split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length < 3) {
+			respond(key, 400, "Invalid request line");
+			return false;
+		}
+		if (!requestLine[0].equals("POST") && !requestLine[0].equals("PUT")) {
+			respond(key, 405, "Only POST and PUT are supported");
+			return false;
+		}
+		String path = requestLine[1];
+		int query = path.indexOf('?');
+		conn.path = (query >= 0) ? path.substring(0, query) : path;
+		String authorization = null;
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0)
+				continue;
+			String name = lines[i].substring(0, colon).trim();
+			String value = lines[i].substring(colon + 1).trim();
+			if (name.equalsIgnoreCase("Content-Length")) {
+				try {
+					conn.contentLength = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					respond(key, 400, "Invalid Content-Length");
+					return false;
+				}
+			} else if (name.equalsIgnoreCase("Content-Type"))
+				conn.contentType = value;
+			else if (name.equalsIgnoreCase("Authorization"))
+				authorization = value;
+			else if (name.equalsIgnoreCase("Transfer-Encoding") && !value.equalsIgnoreCase("identity")) {
+				respond(key, 411, "Content-Length is required");
+				return false;
+			}
+		}
+		// Unknown paths and wrong credentials are rejected before the body is read
+		Route route = getRoute(conn.path);
+		if (route == null) {
+			respond(key, 404, "No channel for path " + conn.path);
+			return false;
+		}
+		if ((authorization == null) || (route.authorization.length == 0) || !MessageDigest.isEqual(getBytes(authorization), route.authorization)) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push request for channel {0} from {1} is rejected, the credential is {2}.", 
+				new Object[] {route.channelID, conn.channel.socket().getInetAddress(), (authorization == null) ? "missing" : "wrong"});
+			respond(key, 401, "Authentication required");
+			return false;
+		}
+		conn.channelID = route.channelID;
+		if (conn.contentLength < 0) {
+			respond(key, 411, "Content-Length is required");
+			return false;
+		}
+		if (conn.contentLength > maxRequestSize) {
+			respond(key, 413, "Request body exceeds " + maxRequestSize + " bytes");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Hands over a complete request to the worker pool. The connection is not read anymore till the response is sent.
+	 */
+	private void dispatch(final SelectionKey key, final Connection conn) throws IOException {
+		final String SIGNATURE = "dispatch(SelectionKey key, Connection conn)";
+		// The route might have been changed while the body was read, the credential was checked for this channel
+		final String channelID = conn.channelID;
+		if (!isRouted(conn.path, channelID)) {
+			respond(key, 404, "No channel for path " + conn.path);
+			return;
+		}
+		final byte[] content = new byte[conn.contentLength];
+		System.arraycopy(conn.data, conn.headerEnd, content, 0, conn.contentLength);
+		conn.data = null;
+
+		String taskKey;
+		synchronized (this) {
+			if (pending >= queueCapacity)
+				taskKey = null;
+			else {
+				pending++;
+				taskKey = "push:" + (++requestCount);
+			}
+		}
+		if (taskKey == null) {
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push request for channel {0} is rejected, {1} requests are pending.",
+				new Object[] {channelID, Integer.toString(queueCapacity)});
+			respond(key, 503, "Too many pending requests, retry later");
+			return;
+		}
+		conn.dispatched = true;
+		key.interestOps(0);
+		boolean queued = workerPool.submit(taskKey, new Runnable() {
+			public void run() {
+				int status = 500;
+				String text = "Content could not be sent";
+				try {
+					if (handler.handle(channelID, content, conn.contentType)) {
+						status = 202;
+						text = "Accepted";
+					}
+				} catch (Exception e) {
+					TRACE.catching(SIGNATURE, e);
+					TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Push request for channel {0} failed: {1}", new Object[] {channelID, e.getMessage()});
+				}
+				complete(key, conn, status, text);
+			}
+		});
+		if (!queued) {
+			synchronized (this) {
+				pending--;
+			}
+			conn.dispatched = false;
+			respond(key, 503, "Worker pool is saturated, retry later");
+		}
+	}
+
+	/**
+	 * Called by a worker when the request was processed. The selector thread sends the response.
+	 */
+	private void complete(SelectionKey key, Connection conn, int status, String text) {
+		conn.response = createResponse(status, text);
+		synchronized (this) {
+			pending--;
+			if (status == 202)
+				committed++;
+			else
+				failed++;
+			responses.add(key);
+		}
+		selector.wakeup();
+	}
+
+	private void sendResponses() {
+		List ready;
+		synchronized (this) {
+			if (responses.isEmpty())
+				return;
+			ready = new LinkedList(responses);
+			responses.clear();
+		}
+		for (int i = 0; i < ready.size(); i++) {
+			SelectionKey key = (SelectionKey) ready.get(i);
+			if (key.isValid()) {
+				((Connection) key.attachment()).lastActivity = System.currentTimeMillis();
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void respond(SelectionKey key, int status, String text) {
+		Connection conn = (Connection) key.attachment();
+		conn.response = createResponse(status, text);
+		conn.data = null;
+		synchronized (this) {
+			if (status >= 400)
+				rejected++;
+		}
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		Connection conn = (Connection) key.attachment();
+		conn.channel.write(conn.response);
+		conn.lastActivity = System.currentTimeMillis();
+		if (!conn.response.hasRemaining())
+			closeConnection(key);
+	}
+
+	private static ByteBuffer createResponse(int status, String text) {
+		String reason;
+		switch (status) {
+			case 202: reason = "Accepted"; break;
+			case 400: reason = "Bad Request"; break;
+			case 401: reason = "Unauthorized"; break;
+			case 404: reason = "Not Found"; break;
+			case 405: reason = "Method Not Allowed"; break;
+			case 411: reason = "Length Required"; break;
+			case 413: reason = "Payload Too Large"; break;
+			case 431: reason = "Request Header Fields Too Large"; break;
+			case 503: reason = "Service Unavailable"; break;
+			default: reason = "Internal Server Error";
+		}
+		StringBuffer sb = new StringBuffer();
+		sb.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+		sb.append("Content-Type: text/plain\r\n");
+		sb.append("Content-Length: ").append(text.length()).append("\r\n");
+		if (status == 401)
+			sb.append("WWW-Authenticate: Basic realm=\"XI AF EQ Adapter\"\r\n");
+		if (status == 503)
+			sb.append("Retry-After: 1\r\n");
+		sb.append("Connection: close\r\n\r\n");
+		sb.append(text);
+		try {
+			return ByteBuffer.wrap(sb.toString().getBytes("ISO-8859-1"));
+		} catch (IOException e) {
+			return ByteBuffer.wrap(sb.toString().getBytes());
+		}
+	}
+
+	private static int findHeaderEnd(byte[] data, int length) {
+		for (int i = 3; i < length; i++) {
+			if ((data[i] == '\n') && (data[i - 1] == '\r') && (data[i - 2] == '\n') && (data[i - 3] == '\r'))
+				return i + 1;
+		}
+		return -1;
+	}
+
+	private void closeIdleConnections() {
+		long now = System.currentTimeMillis();
+		Iterator it = selector.keys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = (SelectionKey) it.next();
+			Object attachment = key.attachment();
+			if (!(attachment instanceof Connection))
+				continue;
+			Connection conn = (Connection) attachment;
+			// Connections waiting for the worker pool are kept, their response is sent when the messages are committed
+			if ((!conn.dispatched || (conn.response != null)) && (now - conn.lastActivity > IDLE_TIMEOUT))
+				closeConnection(key);
+		}
+	}
+
+	private void closeConnection(SelectionKey key) {
+		final String SIGNATURE = "closeConnection(SelectionKey key)";
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			TRACE.catching(SIGNATURE, e);
+		}
+	}
+
+	private void close() {
+		final String SIGNATURE = "close()";
+		try {
+			if (selector != null) {
+				Iterator it = selector.keys().iterator();
+				while (it.hasNext())
+					((SelectionKey) it.next()).channel().close();
+				selector.close();
+			}
+			if (server != null)
+				server.close();
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+		}
+	}
+
+	/**
+	 * @return Short statistic of the listener for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIPushListener [port: " + port + ", routes: " + routes.size() + ", pending: " + pending + ", accepted: " + accepted
+			+ ", committed: " + committed + ", failed: " + failed + ", rejected: " + rejected + "]";
+	}
+}
@@ -0,0 +1,166 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * The <code>XIRecordSplitter</code> splits one large XML document into several smaller documents.
+ * The document is read once with a StAX event reader, i.e. no DOM is built. Every record element
+ * is copied into the current part till the configured number of records per part is reached.
+ * Each part keeps the envelope of the original document, i.e. the records are wrapped into the
+ * ancestor elements (including their attributes and namespaces) of the first record of the part.
+ * Content outside of the record elements (e.g. header elements) is not copied into the parts.
+ * The record element is either given by its local name (e.g. <code>Record</code>) or by an absolute
+ * path of local names (e.g. <code>/Response/Records/Record</code>).
+ * (ra implementation specific)
+ **/
+public class XIRecordSplitter {
+
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+	private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+	static {
+		// Polled documents must not resolve external entities
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+
+	private String recordName = null;
+	private String recordPath = null;
+	private int recordsPerPart = 1;
+
+	/**
+	 * Receives the parts of a split document (ra implementation specific)
+	 */
+	public interface PartHandler {
+		/**
+		 * @param content XML document of the part, UTF-8 encoded
+		 * @param index Number of the part, starting with 0
+		 * @return true to continue splitting, false to stop
+		 * @throws Exception if the part cannot be processed
+		 */
+		public boolean handlePart(byte[] content, int index) throws Exception;
+	}
+
+	/**
+	 * Creates a splitter
+	 * @param record Local name or absolute path of local names of the record element
+	 * @param recordsPerPart Number of records per part
+	 */
+	public XIRecordSplitter(String record, int recordsPerPart) {
+		if (record.startsWith("/"))
+			this.recordPath = record;
+		else
+			this.recordName = record;
+		this.recordsPerPart = (recordsPerPart > 0) ? recordsPerPart : 1;
+	}
+
+	/**
+	 * Splits a document and hands over each part to the handler
+	 * @param in XML document
+	 * @param handler Receives the parts
+	 * @return Number of parts that were handed over
+	 * @throws Exception if the document cannot be parsed or the handler fails
+	 */
+	public int split(InputStream in, PartHandler handler) throws Exception {
+		XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(in);
+		List ancestors = new ArrayList();
+		StringBuffer path = new StringBuffer();
+		List pathLengths = new ArrayList();
+
+		ByteArrayOutputStream part = null;
+		XMLEventWriter writer = null;
+		List envelope = null;
+		int recordsInPart = 0;
+		int recordDepth = 0;
+		int parts = 0;
+
+		try {
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+
+				// Inside a record: copy everything
+				if (recordDepth > 0) {
+					writer.add(event);
+					if (event.isStartElement())
+						recordDepth++;
+					else if (event.isEndElement()) {
+						recordDepth--;
+						if ((recordDepth == 0) && (++recordsInPart == recordsPerPart)) {
+							if (!handler.handlePart(closePart(writer, envelope, part), parts++))
+								return parts;
+							writer = null;
+						}
+					}
+					continue;
+				}
+
+				if (event.isStartElement()) {
+					StartElement start = event.asStartElement();
+					pathLengths.add(new Integer(path.length()));
+					path.append('/').append(start.getName().getLocalPart());
+					if (isRecord(start, path)) {
+						if (writer == null) {
+							// Start a new part with the envelope of this record
+							part = new ByteArrayOutputStream();
+							writer = OUTPUT_FACTORY.createXMLEventWriter(part, "UTF-8");
+							writer.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+							envelope = new ArrayList(ancestors);
+							for (int i = 0; i < envelope.size(); i++)
+								writer.add((StartElement) envelope.get(i));
+							recordsInPart = 0;
+						}
+						writer.add(start);
+						recordDepth = 1;
+						// The record element is closed by the copy branch, hence leave the path as it is
+						path.setLength(((Integer) pathLengths.remove(pathLengths.size() - 1)).intValue());
+					} else
+						ancestors.add(start);
+				} else if (event.isEndElement()) {
+					if (ancestors.size() > 0)
+						ancestors.remove(ancestors.size() - 1);
+					if (pathLengths.size() > 0)
+						path.setLength(((Integer) pathLengths.remove(pathLengths.size() - 1)).intValue());
+					// Records of a part must share the same parent, hence close the part when the parent ends
+					if ((writer != null) && (ancestors.size() < envelope.size())) {
+						if (!handler.handlePart(closePart(writer, envelope, part), parts++))
+							return parts;
+						writer = null;
+					}
+				}
+			}
+			// Remaining records
+			if (writer != null)
+				handler.handlePart(closePart(writer, envelope, part), parts++);
+		} finally {
+			reader.close();
+		}
+		return parts;
+	}
+
+	private boolean isRecord(StartElement start, StringBuffer path) {
+		if (recordName != null)
+			return recordName.equals(start.getName().getLocalPart());
+		return recordPath.equals(path.toString());
+	}
+
+	private byte[] closePart(XMLEventWriter writer, List envelope, ByteArrayOutputStream part) throws Exception {
+		for (int i = envelope.size() - 1; i >= 0; i--) {
+			StartElement start = (StartElement) envelope.get(i);
+			writer.add(EVENT_FACTORY.createEndElement(start.getName(), null));
+		}
+		writer.add(EVENT_FACTORY.createEndDocument());
+		writer.close();
+		return part.toByteArray();
+	}
+}
@@ -0,0 +1,173 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.sap.aii.af.service.administration.api.monitoring.ChannelDirection;
+import com.sap.aii.af.service.administration.api.monitoring.MonitoringManager;
+import com.sap.aii.af.service.administration.api.monitoring.MonitoringManagerFactory;
+import com.sap.aii.af.service.administration.api.monitoring.ProcessContext;
+import com.sap.aii.af.service.administration.api.monitoring.ProcessContextFactory;
+import com.sap.aii.af.service.administration.api.monitoring.ProcessState;
+import com.sap.aii.af.service.cpa.Channel;
+
+/**
+ * The <code>XIStatusReporter</code> reports the processing status of the inbound channels to the XI AF
+ * monitoring. The polling threads only note the status, the notes are pushed to the
+ * <code>MonitoringManager</code> by the MCF thread with <code>flushIfDue()</code>. Per channel and flush
+ * consecutive notes with the same process state are coalesced to the last one, hence only state changes
+ * and the final status of a poll cycle are pushed. A status that equals the last pushed one is repeated
+ * once per heartbeat interval only.
+ * The monitoring manager and the process context of each channel are kept till the channel is updated or removed.
+ * (ra implementation specific)
+ **/
+public class XIStatusReporter {
+
+	private static final XITrace TRACE = new XITrace(XIStatusReporter.class.getName());
+
+	private String adapterNamespace = null;
+	private String adapterType = null;
+	private long flushInterval = 5000;
+	private long heartbeatInterval = 60000;
+	private long lastFlush = 0;
+
+	private MonitoringManager monitoringManager = null;
+	// Channel ID -> ChannelEntry
+	private Map channels = new HashMap();
+
+	// Statistics
+	private long pushed = 0;
+	private long suppressed = 0;
+
+	private static class Status {
+		ProcessState state;
+		String text;
+
+		Status(ProcessState state, String text) {
+			this.state = state;
+			this.text = text;
+		}
+	}
+
+	private static class ChannelEntry {
+		Channel channel;
+		ProcessContext pc = null;
+		List pending = new ArrayList();
+		Status last = null;
+		long lastPushed = 0;
+
+		ChannelEntry(Channel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Creates a reporter
+	 * @param adapterNamespace Adapter namespace
+	 * @param adapterType Adapter type
+	 * @param flushInterval Minimum time in ms between two flushes
+	 * @param heartbeatInterval Time in ms after which an unchanged status is pushed again
+	 */
+	public XIStatusReporter(String adapterNamespace, String adapterType, long flushInterval, long heartbeatInterval) {
+		this.adapterNamespace = adapterNamespace;
+		this.adapterType = adapterType;
+		this.flushInterval = flushInterval;
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * Notes the status of a channel. The status is pushed with the next flush.
+	 * @param channel Inbound channel
+	 * @param state Process state
+	 * @param text Status text
+	 */
+	public synchronized void report(Channel channel, ProcessState state, String text) {
+		ChannelEntry entry = (ChannelEntry) channels.get(channel.getObjectId());
+		if (entry == null) {
+			entry = new ChannelEntry(channel);
+			channels.put(channel.getObjectId(), entry);
+		}
+		int size = entry.pending.size();
+		if ((size > 0) && (((Status) entry.pending.get(size - 1)).state == state))
+			entry.pending.set(size - 1, new Status(state, text));
+		else
+			entry.pending.add(new Status(state, text));
+	}
+
+	/**
+	 * Forgets a channel, i.e. its process context is created again with the next status
+	 * @param channelID ID of the updated or removed channel
+	 */
+	public synchronized void remove(String channelID) {
+		channels.remove(channelID);
+	}
+
+	/**
+	 * Pushes the noted status if the flush interval has elapsed since the last flush
+	 */
+	public void flushIfDue() {
+		synchronized (this) {
+			if (System.currentTimeMillis() - lastFlush < flushInterval)
+				return;
+		}
+		flush();
+	}
+
+	/**
+	 * Pushes the noted status of all channels to the monitoring
+	 */
+	public void flush() {
+		final String SIGNATURE = "flush()";
+		long now = System.currentTimeMillis();
+		List entries = new ArrayList();
+		List states = new ArrayList();
+		synchronized (this) {
+			lastFlush = now;
+			for (Iterator it = channels.values().iterator(); it.hasNext();) {
+				ChannelEntry entry = (ChannelEntry) it.next();
+				for (int i = 0; i < entry.pending.size(); i++) {
+					Status status = (Status) entry.pending.get(i);
+					if ((entry.last != null) && (entry.last.state == status.state) && (entry.last.text.equals(status.text))
+							&& (now - entry.lastPushed < heartbeatInterval)) {
+						suppressed++;
+						continue;
+					}
+					entry.last = status;
+					entry.lastPushed = now;
+					entries.add(entry);
+					states.add(status);
+				}
+				entry.pending.clear();
+			}
+			pushed += states.size();
+		}
+		if (states.size() == 0)
+			return;
+
+		// Push outside of the lock, the polling threads must not wait for the monitoring
+		try {
+			if (monitoringManager == null)
+				monitoringManager = MonitoringManagerFactory.getInstance().getMonitoringManager();
+			for (int i = 0; i < states.size(); i++) {
+				ChannelEntry entry = (ChannelEntry) entries.get(i);
+				Status status = (Status) states.get(i);
+				if (entry.pc == null)
+					entry.pc = ProcessContextFactory.getInstance().createProcessContext(ProcessContextFactory.getParamSet().channel(entry.channel));
+				monitoringManager.reportProcessStatus(adapterNamespace, adapterType, ChannelDirection.SENDER, status.state, status.text, entry.pc);
+			}
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Channel status cannot be reported. Reason: {0}", new Object[] {e.getMessage()});
+		}
+	}
+
+	/**
+	 * @return Short statistic of the reporter for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XIStatusReporter [channels: " + channels.size() + ", pushed: " + pushed + ", suppressed: " + suppressed + "]";
+	}
+}
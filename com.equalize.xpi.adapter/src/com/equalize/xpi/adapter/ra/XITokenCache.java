@@ -0,0 +1,216 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The <code>XITokenCache</code> keeps the OAuth access tokens of the inbound channels.
+ * Tokens are cached per token endpoint, user and consumer key, hence channels that share the same
+ * credentials also share the same token. A cached token is reused till it expires. Shortly before
+ * the expiry a fresh token is fetched in the background on the worker pool, so the polling
+ * does not wait for the token service as long as the token is in use.
+ * A token that is rejected by the target endpoint (HTTP 401) is invalidated with <code>invalidate()</code>.
+ * (ra implementation specific)
+ **/
+public class XITokenCache {
+
+	private static final XITrace TRACE = new XITrace(XITokenCache.class.getName());
+
+	// A token is not handed out anymore if it expires within this time (clock skew, request duration)
+	private static final long EXPIRY_MARGIN = 10000;
+	// Upper bound of the time before the expiry at which the background refresh is started
+	private static final long MAX_REFRESH_MARGIN = 60000;
+
+	// Cached tokens (cache key -> TokenEntry)
+	private Map entries = new HashMap();
+	private XIWorkerPool workerPool = null;
+
+	// Statistics
+	private long hits = 0;
+	private long fetches = 0;
+
+	/**
+	 * Fetches a new token from the token service (ra implementation specific)
+	 */
+	public interface TokenFetcher {
+		/**
+		 * @return New access token
+		 * @throws Exception if the token service cannot be called
+		 */
+		public String fetchToken() throws Exception;
+	}
+
+	/**
+	 * Creates an empty token cache
+	 * @param workerPool Pool that executes the background refresh. If null, tokens are only refreshed on demand.
+	 */
+	public XITokenCache(XIWorkerPool workerPool) {
+		this.workerPool = workerPool;
+	}
+
+	/**
+	 * Builds the cache key of a token
+	 * @param tokenEndpoint URL of the token service
+	 * @param user User of the token service
+	 * @param consumerKey Consumer key of the token service
+	 * @return Cache key
+	 */
+	public static String createKey(String tokenEndpoint, String user, String consumerKey) {
+		return tokenEndpoint + "|" + user + "|" + consumerKey;
+	}
+
+	/**
+	 * Returns a valid token. A cached token is returned if it does not expire soon, otherwise
+	 * a new token is fetched synchronously. If the cached token is close to its expiry a background
+	 * refresh is started.
+	 * @param key Cache key, see <code>createKey()</code>
+	 * @param lifetime Lifetime of a new token in milliseconds
+	 * @param fetcher Fetches a new token if required
+	 * @return Access token
+	 * @throws Exception if a new token is required and cannot be fetched
+	 */
+	public String getToken(String key, long lifetime, TokenFetcher fetcher) throws Exception {
+		final String SIGNATURE = "getToken(String key, long lifetime, TokenFetcher fetcher)";
+		TokenEntry entry = getEntry(key);
+		boolean refresh = false;
+		String token = null;
+		synchronized (entry) {
+			long now = System.currentTimeMillis();
+			if ((entry.token != null) && (now < entry.expiresAt - EXPIRY_MARGIN)) {
+				token = entry.token;
+				refresh = (now >= entry.refreshAt);
+				countHit();
+			} else {
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "No valid token cached for {0}. Fetch a new one.", new Object[] {key});
+				fetch(entry, lifetime, fetcher);
+				token = entry.token;
+			}
+		}
+		if (refresh)
+			startRefresh(key, entry, lifetime, fetcher);
+		return token;
+	}
+
+	/**
+	 * Invalidates a cached token, e.g. since it was rejected by the target endpoint.
+	 * The cache entry is only invalidated if it still contains the given token, so a token
+	 * that was refreshed in the meantime is kept.
+	 * @param key Cache key
+	 * @param token Rejected token
+	 */
+	public void invalidate(String key, String token) {
+		final String SIGNATURE = "invalidate(String key, String token)";
+		TokenEntry entry = getEntry(key);
+		synchronized (entry) {
+			if ((entry.token != null) && (entry.token.equals(token))) {
+				entry.token = null;
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Token for {0} was invalidated.", new Object[] {key});
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached tokens
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return Short statistic of the cache for trace purposes
+	 */
+	public synchronized String toString() {
+		return "XITokenCache [tokens: " + entries.size() + ", hits: " + hits + ", fetches: " + fetches + "]";
+	}
+
+	private synchronized TokenEntry getEntry(String key) {
+		TokenEntry entry = (TokenEntry) entries.get(key);
+		if (entry == null) {
+			entry = new TokenEntry();
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+
+	private synchronized void countHit() {
+		hits++;
+	}
+
+	private synchronized void countFetch() {
+		fetches++;
+	}
+
+	/**
+	 * Fetches a new token into the cache entry. The caller must hold the lock of the entry.
+	 */
+	private void fetch(TokenEntry entry, long lifetime, TokenFetcher fetcher) throws Exception {
+		long fetchedAt = System.currentTimeMillis();
+		store(entry, requestToken(fetcher), fetchedAt, lifetime);
+	}
+
+	/**
+	 * Calls the token service, no lock is needed
+	 */
+	private String requestToken(TokenFetcher fetcher) throws Exception {
+		String token = fetcher.fetchToken();
+		countFetch();
+		if ((token == null) || (token.length() == 0))
+			throw new Exception("Token service did not return an access token");
+		return token;
+	}
+
+	/**
+	 * Takes over a fetched token. The caller must hold the lock of the entry.
+	 * @param fetchedAt Time the token was requested, its lifetime starts then at the latest
+	 */
+	private static void store(TokenEntry entry, String token, long fetchedAt, long lifetime) {
+		entry.token = token;
+		entry.expiresAt = fetchedAt + lifetime;
+		entry.refreshAt = entry.expiresAt - Math.min(lifetime / 5, MAX_REFRESH_MARGIN);
+	}
+
+	/**
+	 * Queues the refresh of a token on the worker pool. Since the pool accepts only one task per key
+	 * a token is never refreshed twice at the same time. The token service is called without the lock
+	 * of the entry, hence <code>getToken()</code> keeps returning the current token meanwhile.
+	 */
+	private void startRefresh(final String key, final TokenEntry entry, final long lifetime, final TokenFetcher fetcher) {
+		final String SIGNATURE = "startRefresh(String key, TokenEntry entry, long lifetime, TokenFetcher fetcher)";
+		if (workerPool == null)
+			return;
+		workerPool.submit("token " + key, new Runnable() {
+			public void run() {
+				synchronized (entry) {
+					// Another thread might have fetched a new token already
+					if ((entry.token != null) && (System.currentTimeMillis() < entry.refreshAt))
+						return;
+				}
+				long fetchedAt = System.currentTimeMillis();
+				String token;
+				try {
+					token = requestToken(fetcher);
+				} catch (Exception e) {
+					// Keep the old token till it expires, the next use will try again
+					TRACE.catching(SIGNATURE, e);
+					TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Background refresh of token for {0} failed. Reason: {1}", new Object[] {key, e.getMessage()});
+					return;
+				}
+				synchronized (entry) {
+					// A token fetched synchronously in the meantime (e.g. after an invalidation) is newer and kept
+					if ((entry.token == null) || (fetchedAt + lifetime > entry.expiresAt))
+						store(entry, token, fetchedAt, lifetime);
+				}
+				TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Token for {0} was refreshed in the background.", new Object[] {key});
+			}
+		});
+	}
+
+	/**
+	 * Cached token with its expiry
+	 */
+	private static class TokenEntry {
+		String token;
+		long expiresAt;
+		long refreshAt;
+	}
+}
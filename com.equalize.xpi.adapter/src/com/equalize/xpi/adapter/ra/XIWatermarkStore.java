@@ -0,0 +1,135 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * The <code>XIWatermarkStore</code> persists the incremental polling position of the inbound channels
+ * in a local properties file. Per channel it keeps
+ * <ul>
+ * <li>the watermark (e.g. a last-modified timestamp or a cursor) that is used in the poll URL,</li>
+ * <li>the position within the current paginated run (offset or page token) and</li>
+ * <li>the newest watermark seen in the current run that becomes the watermark when the run is finished.</li>
+ * </ul>
+ * A position is only stored after the related page was committed in the XI AF, hence a restarted
+ * adapter continues with the first page that was not sent yet.
+ * The file is replaced as a whole by renaming a temporary file, i.e. it is never left half written.
+ * If the replacement was interrupted after the old file was removed, the temporary file is taken over.
+ * (ra implementation specific)
+ **/
+public class XIWatermarkStore {
+
+	private static final XITrace TRACE = new XITrace(XIWatermarkStore.class.getName());
+
+	private static final String KEY_WATERMARK = ".watermark";
+	private static final String KEY_CURSOR = ".cursor";
+	private static final String KEY_PENDING = ".pending";
+
+	private File file = null;
+	private Properties properties = new Properties();
+
+	/**
+	 * Opens the store and loads the stored positions
+	 * @param fileName Absolute name of the properties file, it is created with the first commit
+	 * @throws IOException if the name is not absolute or the existing file cannot be read
+	 */
+	public XIWatermarkStore(String fileName) throws IOException {
+		final String SIGNATURE = "XIWatermarkStore(String fileName)";
+		if (fileName == null)
+			throw new IOException("No watermark store file is configured");
+		this.file = new File(fileName);
+		// A relative name would depend on the working directory of the server node
+		if (!file.isAbsolute())
+			throw new IOException("Watermark store file " + fileName + " is not an absolute path");
+		File tmp = new File(file.getPath() + ".tmp");
+		if ((!file.exists()) && (tmp.exists())) {
+			// The last save removed the old file but did not rename the synced temporary file
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Watermark store {0} is missing. Recovering it from {1}.", new Object[] {file.getAbsolutePath(), tmp.getAbsolutePath()});
+			if (!tmp.renameTo(file))
+				throw new IOException("Cannot recover watermark store " + file.getAbsolutePath() + " from " + tmp.getAbsolutePath());
+		}
+		if (file.exists()) {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Watermark store {0} opened with {1} entries.", new Object[] {file.getAbsolutePath(), Integer.toString(properties.size())});
+	}
+
+	/**
+	 * @param channelID ID of the channel
+	 * @return Watermark of the channel or null if none is stored
+	 */
+	public synchronized String getWatermark(String channelID) {
+		return properties.getProperty(channelID + KEY_WATERMARK);
+	}
+
+	/**
+	 * @param channelID ID of the channel
+	 * @return Position within the current paginated run or null if no run is in progress
+	 */
+	public synchronized String getCursor(String channelID) {
+		return properties.getProperty(channelID + KEY_CURSOR);
+	}
+
+	/**
+	 * @param channelID ID of the channel
+	 * @return Newest watermark seen in the current paginated run or null
+	 */
+	public synchronized String getPendingWatermark(String channelID) {
+		return properties.getProperty(channelID + KEY_PENDING);
+	}
+
+	/**
+	 * Stores the position after a page was committed
+	 * @param channelID ID of the channel
+	 * @param cursor Position of the next page or null if the run is finished
+	 * @param pendingWatermark Newest watermark seen so far in the run, might be null
+	 * @throws IOException if the store cannot be written
+	 */
+	public synchronized void commitPage(String channelID, String cursor, String pendingWatermark) throws IOException {
+		if (cursor == null) {
+			// The run is finished: the newest watermark becomes the watermark of the next run
+			properties.remove(channelID + KEY_CURSOR);
+			properties.remove(channelID + KEY_PENDING);
+			if (pendingWatermark != null)
+				properties.setProperty(channelID + KEY_WATERMARK, pendingWatermark);
+		} else {
+			properties.setProperty(channelID + KEY_CURSOR, cursor);
+			if (pendingWatermark != null)
+				properties.setProperty(channelID + KEY_PENDING, pendingWatermark);
+		}
+		save();
+	}
+
+	/**
+	 * Drops the position of the current paginated run, e.g. because the paging settings of the channel
+	 * were changed. The watermark is kept, hence the next poll starts a new run after the watermark.
+	 * @param channelID ID of the channel
+	 * @throws IOException if the store cannot be written
+	 */
+	public synchronized void reset(String channelID) throws IOException {
+		if ((properties.remove(channelID + KEY_CURSOR) != null) | (properties.remove(channelID + KEY_PENDING) != null))
+			save();
+	}
+
+	private void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, "Watermarks of the inbound channels");
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		// Rename does not replace an existing file on all platforms
+		if ((!tmp.renameTo(file)) && ((!file.delete()) || (!tmp.renameTo(file))))
+			throw new IOException("Cannot replace watermark store " + file.getAbsolutePath());
+	}
+}
@@ -0,0 +1,246 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.sap.aii.af.service.resource.SAPAdapterResources;
+
+/**
+ * The <code>XIWorkerPool</code> executes tasks (e.g. the polling of one inbound channel) in parallel
+ * on a fixed number of worker threads.
+ * XI AF resource adapters MUST NOT use Java native threads, hence the worker threads are taken from the
+ * SAP J2EE application thread pool via <code>SAPAdapterResources.startRunnable()</code> and live as long as
+ * the pool is running.
+ * Each task is submitted with a key (e.g. the channel ID). A task is rejected as long as another
+ * task with the same key is queued or running, hence tasks of the same key never run in parallel.
+ * (ra implementation specific)
+ **/
+public class XIWorkerPool {
+
+	private static final XITrace TRACE = new XITrace(XIWorkerPool.class.getName());
+
+	// Time a worker waits for a new task before it checks the pool status again
+	private static final long POLL_TIMEOUT = 1000;
+
+	private SAPAdapterResources msRes = null;
+	private String name = null;
+	private int size = 0;
+
+	// Queued tasks and the keys of all tasks that are queued or running
+	private LinkedBlockingQueue queue = null;
+	private Set inFlight = new HashSet();
+
+	// Pool status and statistics
+	private volatile boolean stopped = true;
+	private int activeWorkers = 0;
+	private int busyWorkers = 0;
+	private long completedTasks = 0;
+	private long rejectedTasks = 0;
+
+	/**
+	 * Creates a worker pool. The worker threads are started with <code>start()</code>.
+	 * @param msRes XI AF resources that provide the application threads
+	 * @param name Name of the pool, used as thread name prefix and in traces
+	 * @param size Number of worker threads
+	 * @param capacity Maximum number of queued (not yet running) tasks
+	 */
+	public XIWorkerPool(SAPAdapterResources msRes, String name, int size, int capacity) {
+		this.msRes = msRes;
+		this.name = name;
+		this.size = (size > 0) ? size : 1;
+		this.queue = new LinkedBlockingQueue((capacity > 0) ? capacity : Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Starts the worker threads
+	 * @throws Exception if the application threads cannot be started
+	 */
+	public synchronized void start() throws Exception {
+		final String SIGNATURE = "start()";
+		TRACE.entering(SIGNATURE);
+		stopped = false;
+		for (int i = activeWorkers; i < size; i++) {
+			msRes.startRunnable(new Worker(i));
+			activeWorkers++;
+		}
+		TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Worker pool {0} started with {1} threads.", new Object[] {name, Integer.toString(size)});
+		TRACE.exiting(SIGNATURE);
+	}
+
+	/**
+	 * Queues a task for execution
+	 * @param key Key of the task. Only one task per key can be queued or running at the same time.
+	 * @param task Task to execute
+	 * @return true if the task was queued, false if the pool is stopped, the queue is full or a task with the same key is in flight
+	 */
+	public synchronized boolean submit(String key, Runnable task) {
+		final String SIGNATURE = "submit(String key, Runnable task)";
+		if (stopped || inFlight.contains(key)) {
+			rejectedTasks++;
+			return false;
+		}
+		if (!queue.offer(new KeyedTask(key, task))) {
+			rejectedTasks++;
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Worker pool {0} is saturated. Task {1} is rejected. Queue depth: {2}",
+				new Object[] {name, key, Integer.toString(queue.size())});
+			return false;
+		}
+		inFlight.add(key);
+		return true;
+	}
+
+	/**
+	 * Checks whether a task with the given key is queued or running
+	 * @param key Key of the task
+	 * @return true if a task with this key is in flight
+	 */
+	public synchronized boolean isInFlight(String key) {
+		return inFlight.contains(key);
+	}
+
+	/**
+	 * Stops accepting new tasks and waits till all queued and running tasks are finished and
+	 * all worker threads have ended.
+	 * @param timeout Maximum wait time in milliseconds
+	 * @return true if the pool was drained completely within the timeout
+	 * @throws InterruptedException if the calling thread was interrupted while waiting
+	 */
+	public synchronized boolean shutdown(long timeout) throws InterruptedException {
+		final String SIGNATURE = "shutdown(long timeout)";
+		TRACE.entering(SIGNATURE, new Object[] {new Long(timeout)});
+		stopped = true;
+		long end = System.currentTimeMillis() + timeout;
+		long wait = timeout;
+		while ((activeWorkers > 0) && (wait > 0)) {
+			// $JL-WAIT$ The wait time is deterministic
+			wait(wait);
+			wait = end - System.currentTimeMillis();
+		}
+		boolean drained = (activeWorkers == 0);
+		if (drained)
+			TRACE.infoT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Worker pool {0} was drained and stopped.", new Object[] {name});
+		else
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Worker pool {0} was not drained within {1} ms. Running: {2}, queued: {3}",
+				new Object[] {name, Long.toString(timeout), Integer.toString(busyWorkers), Integer.toString(queue.size())});
+		TRACE.exiting(SIGNATURE);
+		return drained;
+	}
+
+	/**
+	 * @return Number of tasks that wait for a free worker thread
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return Number of worker threads that execute a task right now
+	 */
+	public synchronized int getBusyWorkers() {
+		return busyWorkers;
+	}
+
+	/**
+	 * @return Number of tasks executed since the pool was created
+	 */
+	public synchronized long getCompletedTasks() {
+		return completedTasks;
+	}
+
+	/**
+	 * @return Number of tasks rejected since the pool was created
+	 */
+	public synchronized long getRejectedTasks() {
+		return rejectedTasks;
+	}
+
+	/**
+	 * @return Number of worker threads
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Short statistic of the pool for trace purposes
+	 */
+	public synchronized String toString() {
+		return name + " [threads: " + size + ", busy: " + busyWorkers + ", queued: " + queue.size()
+			+ ", completed: " + completedTasks + ", rejected: " + rejectedTasks + "]";
+	}
+
+	/**
+	 * Called by a worker before and after a task execution
+	 */
+	private synchronized void taskStarted() {
+		busyWorkers++;
+	}
+
+	private synchronized void taskFinished(String key) {
+		busyWorkers--;
+		completedTasks++;
+		inFlight.remove(key);
+	}
+
+	private synchronized void workerEnded() {
+		activeWorkers--;
+		notifyAll();
+	}
+
+	/**
+	 * A task together with its key
+	 */
+	private static class KeyedTask {
+		String key;
+		Runnable task;
+
+		KeyedTask(String key, Runnable task) {
+			this.key = key;
+			this.task = task;
+		}
+	}
+
+	/**
+	 * A worker takes tasks from the queue till the pool is stopped and the queue is empty
+	 */
+	private class Worker implements Runnable {
+		private int number;
+
+		Worker(int number) {
+			this.number = number;
+		}
+
+		public void run() {
+			final String SIGNATURE = "Worker.run()";
+			String oldThreadName = Thread.currentThread().getName();
+			try {
+				Thread.currentThread().setName("XI AF " + AdapterConstants.adapterName + " " + name + " " + number);
+				while ((!stopped) || (!queue.isEmpty())) {
+					KeyedTask kt = null;
+					try {
+						kt = (KeyedTask) queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						TRACE.catching(SIGNATURE, e);
+						break;
+					}
+					if (kt == null)
+						continue;
+					taskStarted();
+					try {
+						kt.task.run();
+					} catch (Throwable t) {
+						TRACE.catching(SIGNATURE, t);
+						TRACE.errorT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "Task {0} of worker pool {1} failed. Reason: {2}", new Object[] {kt.key, name, t.getMessage()});
+					} finally {
+						taskFinished(kt.key);
+					}
+				}
+			} finally {
+				workerEnded();
+				Thread.currentThread().setName(oldThreadName);
+			}
+		}
+	}
+}
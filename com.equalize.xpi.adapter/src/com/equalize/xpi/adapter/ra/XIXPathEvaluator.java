@@ -0,0 +1,457 @@
+package com.equalize.xpi.adapter.ra;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * The <code>XIXPathEvaluator</code> extracts the string value of an XPath expression from an XML document
+ * without building a DOM where possible. It replaces <code>ConversionDOMInput.evaluateXPathToString()</code>
+ * for the adapter's own lookups (token, watermark, page token, file name):
+ * <ul>
+ * <li>Simple absolute paths are evaluated by a StAX scan that stops at the first match. A simple path
+ * consists of element names or <code>*</code> with an optional position (e.g. <code>/Orders/Order[2]/Id</code>) and may end
+ * with an attribute (e.g. <code>/Access_Token/@type</code>).</li>
+ * <li>All other expressions are compiled once and evaluated on a DOM of the document.</li>
+ * </ul>
+ * As with the DOM evaluation the string value of the first match is returned, or "" if nothing matches.
+ * <code>evaluateAll()</code> returns the string values of all matches (node-set) in document order.
+ * Evaluators are shared via <code>getEvaluator()</code> which keeps the most recently used ones, or
+ * are created once per channel configuration.
+ * An evaluator can be used by several threads. A compiled expression is not thread safe, hence each
+ * evaluation borrows one from a small pool of compiled copies of the expression.
+ * (ra implementation specific)
+ **/
+public class XIXPathEvaluator {
+
+	private static final XITrace TRACE = new XITrace(XIXPathEvaluator.class.getName());
+
+	// Number of evaluators that are kept by getEvaluator()
+	private static final int CACHE_SIZE = 256;
+
+	// Expression -> XIXPathEvaluator in access order, the least recently used one is dropped first
+	private static final Map cache = new LinkedHashMap(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private static long hits = 0;
+	private static long misses = 0;
+
+	private static XMLInputFactory inputFactory = null;
+	private static DocumentBuilderFactory builderFactory = null;
+	private static XPathFactory xpathFactory = null;
+
+	// Compiled copies of the expression that are kept for concurrent evaluations
+	private static final int MAX_IDLE_EXPRESSIONS = 8;
+
+	private final String expression;
+	// Element names of a simple path or null if the expression needs the DOM evaluation
+	private final String[] steps;
+	// Position of each element step (1-based), 0 if the step has no positional predicate
+	private final int[] positions;
+	// Attribute of the last element step or null if the string value of the element is returned
+	private final String attribute;
+	// Idle compiled expressions, empty for simple paths
+	private final LinkedList idle = new LinkedList();
+
+	/**
+	 * Compiles an expression. Use <code>getEvaluator()</code> to share the evaluators.
+	 * @param expression XPath expression
+	 * @throws XPathExpressionException if the expression is invalid
+	 */
+	public XIXPathEvaluator(String expression) throws XPathExpressionException {
+		this.expression = expression;
+		List names = new ArrayList();
+		List predicates = new ArrayList();
+		String[] attr = new String[1];
+		if (parseSimplePath(expression, names, predicates, attr)) {
+			this.steps = (String[]) names.toArray(new String[names.size()]);
+			this.positions = new int[steps.length];
+			for (int i = 0; i < steps.length; i++)
+				positions[i] = ((Integer) predicates.get(i)).intValue();
+			this.attribute = attr[0];
+		} else {
+			this.steps = null;
+			this.positions = null;
+			this.attribute = null;
+		}
+		// Compile also to validate the expression, the result is the first pooled copy
+		XPathExpression compiled = compile(expression);
+		if (steps == null)
+			idle.add(compiled);
+	}
+
+	/**
+	 * Returns the shared evaluator of an expression. It is compiled with the first call.
+	 * @param expression XPath expression
+	 * @return Evaluator
+	 * @throws XPathExpressionException if the expression is invalid
+	 */
+	public static XIXPathEvaluator getEvaluator(String expression) throws XPathExpressionException {
+		final String SIGNATURE = "getEvaluator(String expression)";
+		synchronized (cache) {
+			XIXPathEvaluator evaluator = (XIXPathEvaluator) cache.get(expression);
+			if (evaluator != null) {
+				hits++;
+				return evaluator;
+			}
+			misses++;
+		}
+		XIXPathEvaluator evaluator = new XIXPathEvaluator(expression);
+		synchronized (cache) {
+			cache.put(expression, evaluator);
+		}
+		TRACE.debugT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "XPath expression {0} compiled (streaming: {1}).", new Object[] {expression, Boolean.toString(evaluator.isStreaming())});
+		return evaluator;
+	}
+
+	/**
+	 * @return XPath expression of this evaluator
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return true if the expression is evaluated by a StAX scan, false if a DOM is built
+	 */
+	public boolean isStreaming() {
+		return steps != null;
+	}
+
+	/**
+	 * Evaluates the expression. The stream is read up to the first match but is not closed.
+	 * @param in XML document
+	 * @return String value of the first match or "" if nothing matches
+	 * @throws Exception if the document cannot be parsed
+	 */
+	public String evaluate(InputStream in) throws Exception {
+		if (steps != null)
+			return getFirst(scan(getInputFactory().createXMLStreamReader(in), 1));
+		return evaluate(parse(new InputSource(in)));
+	}
+
+	/**
+	 * Evaluates the expression as node-set. The stream is read up to the last needed match but is not closed.
+	 * @param in XML document
+	 * @param limit Maximum number of values that are returned
+	 * @return String values of the matches in document order, empty if nothing matches
+	 * @throws Exception if the document cannot be parsed or the expression is not a node-set
+	 */
+	public List evaluateAll(InputStream in, int limit) throws Exception {
+		if (steps != null)
+			return scan(getInputFactory().createXMLStreamReader(in), limit);
+		Document document = parse(new InputSource(in));
+		XPathExpression expr = borrow();
+		NodeList nodes;
+		try {
+			nodes = (NodeList) expr.evaluate(document, XPathConstants.NODESET);
+		} finally {
+			release(expr);
+		}
+		List values = new ArrayList();
+		for (int i = 0; (i < nodes.getLength()) && (values.size() < limit); i++)
+			values.add(nodes.item(i).getTextContent());
+		return values;
+	}
+
+	/**
+	 * Evaluates the expression
+	 * @param content XML document
+	 * @return String value of the first match or "" if nothing matches
+	 * @throws Exception if the document cannot be parsed
+	 */
+	public String evaluate(byte[] content) throws Exception {
+		return evaluate(new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * Evaluates the expression
+	 * @param text XML document
+	 * @return String value of the first match or "" if nothing matches
+	 * @throws Exception if the document cannot be parsed
+	 */
+	public String evaluate(String text) throws Exception {
+		if (steps != null)
+			return getFirst(scan(getInputFactory().createXMLStreamReader(new StringReader(text)), 1));
+		return evaluate(parse(new InputSource(new StringReader(text))));
+	}
+
+	/**
+	 * Evaluates the expression on a parsed document
+	 * @param document DOM of the XML document
+	 * @return String value of the first match or "" if nothing matches
+	 * @throws XPathExpressionException if the evaluation fails
+	 */
+	public String evaluate(Document document) throws XPathExpressionException {
+		XPathExpression expr = borrow();
+		try {
+			return expr.evaluate(document);
+		} finally {
+			release(expr);
+		}
+	}
+
+	// Takes an idle compiled expression or compiles a new one
+	private XPathExpression borrow() throws XPathExpressionException {
+		synchronized (idle) {
+			if (!idle.isEmpty())
+				return (XPathExpression) idle.removeFirst();
+		}
+		return compile(expression);
+	}
+
+	private void release(XPathExpression expr) {
+		synchronized (idle) {
+			if (idle.size() < MAX_IDLE_EXPRESSIONS)
+				idle.addLast(expr);
+		}
+	}
+
+	private static String getFirst(List values) {
+		return values.isEmpty() ? "" : (String) values.get(0);
+	}
+
+	/**
+	 * Scans the document for the matches of the simple path and returns their text contents or attribute values
+	 * @param limit The scan stops after this number of matches
+	 */
+	private List scan(XMLStreamReader reader, int limit) throws Exception {
+		List values = new ArrayList();
+		try {
+			int depth = 0;
+			// Number of leading steps that match the current element path
+			int matched = 0;
+			// Number of siblings seen per step below the currently matched parent
+			int[] counts = new int[steps.length];
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if ((matched == depth - 1) && (depth <= steps.length) && (steps[depth - 1].equals("*") || steps[depth - 1].equals(getName(reader)))) {
+						int step = depth - 1;
+						counts[step]++;
+						if ((positions[step] != 0) && (counts[step] != positions[step]))
+							continue;
+						if (depth < steps.length) {
+							matched = depth;
+							counts[depth] = 0;
+						} else if (attribute == null) {
+							// The end tag of the element is consumed as well
+							values.add(readText(reader));
+							depth--;
+						} else {
+							// Only elements that carry the attribute match, like with the DOM evaluation
+							String value = getAttribute(reader, attribute);
+							if (value != null)
+								values.add(value);
+						}
+						if (values.size() >= limit)
+							return values;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (matched == depth)
+						matched--;
+					depth--;
+				}
+			}
+			return values;
+		} finally {
+			reader.close();
+		}
+	}
+
+	// Concatenates the text of an element and its descendants, the reader is positioned on the start tag
+	private static String readText(XMLStreamReader reader) throws Exception {
+		StringBuffer sb = new StringBuffer();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+			else if ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA) || (event == XMLStreamConstants.SPACE))
+				sb.append(reader.getText());
+		}
+		return sb.toString();
+	}
+
+	// Qualified name as seen by a namespace unaware DOM
+	private static String getName(XMLStreamReader reader) {
+		String prefix = reader.getPrefix();
+		if ((prefix == null) || (prefix.length() == 0))
+			return reader.getLocalName();
+		return prefix + ":" + reader.getLocalName();
+	}
+
+	// Value of an attribute of the current element by its qualified name or null if it is not set
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String prefix = reader.getAttributePrefix(i);
+			String attrName = reader.getAttributeLocalName(i);
+			if ((prefix != null) && (prefix.length() > 0))
+				attrName = prefix + ":" + attrName;
+			if (name.equals(attrName))
+				return reader.getAttributeValue(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Splits an absolute path of element names with optional positions and an optional trailing
+	 * attribute (e.g. <code>/a/b[2]/c/@d</code>)
+	 * @param names Element names of the steps
+	 * @param positions Position of each step as Integer, 0 if the step has none
+	 * @param attribute Element 0 receives the attribute name or null
+	 * @return false if the expression is not such a path
+	 */
+	private static boolean parseSimplePath(String expression, List names, List positions, String[] attribute) {
+		if ((expression == null) || (expression.length() < 2) || (expression.charAt(0) != '/'))
+			return false;
+		int start = 1;
+		while (start <= expression.length()) {
+			int end = expression.indexOf('/', start);
+			if (end < 0)
+				end = expression.length();
+			String step = expression.substring(start, end);
+			// An attribute is only supported as last step after at least one element
+			if (step.startsWith("@")) {
+				if ((end != expression.length()) || names.isEmpty() || !isName(step.substring(1)))
+					return false;
+				attribute[0] = step.substring(1);
+				return true;
+			}
+			int position = 0;
+			int bracket = step.indexOf('[');
+			if (bracket >= 0) {
+				position = parsePosition(step.substring(bracket));
+				if (position <= 0)
+					return false;
+				step = step.substring(0, bracket);
+			}
+			if (!isName(step) && !step.equals("*"))
+				return false;
+			names.add(step);
+			positions.add(new Integer(position));
+			start = end + 1;
+		}
+		return true;
+	}
+
+	// Position of a predicate like [3] or 0 if it is not a plain positive number
+	private static int parsePosition(String predicate) {
+		if ((predicate.length() < 3) || (predicate.charAt(predicate.length() - 1) != ']'))
+			return 0;
+		String number = predicate.substring(1, predicate.length() - 1);
+		if (number.length() > 9)
+			return 0;
+		for (int i = 0; i < number.length(); i++) {
+			if (!Character.isDigit(number.charAt(i)))
+				return 0;
+		}
+		return Integer.parseInt(number);
+	}
+
+	private static boolean isName(String step) {
+		if ((step.length() == 0) || (!Character.isLetter(step.charAt(0)) && (step.charAt(0) != '_')))
+			return false;
+		for (int i = 1; i < step.length(); i++) {
+			char c = step.charAt(i);
+			if (!Character.isLetterOrDigit(c) && (c != '_') && (c != '-') && (c != '.'))
+				return false;
+		}
+		return true;
+	}
+
+	private static XPathExpression compile(String expression) throws XPathExpressionException {
+		synchronized (XIXPathEvaluator.class) {
+			if (xpathFactory == null)
+				xpathFactory = XPathFactory.newInstance();
+			return xpathFactory.newXPath().compile(expression);
+		}
+	}
+
+	private static Document parse(InputSource source) throws Exception {
+		DocumentBuilder builder;
+		synchronized (XIXPathEvaluator.class) {
+			if (builderFactory == null) {
+				// The content comes from external systems: no DTDs and no external entities (XXE).
+				// Not every parser knows all features, entity references are never expanded anyway.
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setExpandEntityReferences(false);
+				setFeature(factory, "http://apache.org/xml/features/disallow-doctype-decl", true);
+				setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+				setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+				setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+				try {
+					factory.setXIncludeAware(false);
+				} catch (UnsupportedOperationException e) {
+					TRACE.catching("parse(InputSource source)", e);
+				}
+				builderFactory = factory;
+			}
+			builder = builderFactory.newDocumentBuilder();
+		}
+		return builder.parse(source);
+	}
+
+	private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value) {
+		final String SIGNATURE = "setFeature(DocumentBuilderFactory factory, String feature, boolean value)";
+		try {
+			factory.setFeature(feature, value);
+		} catch (Exception e) {
+			TRACE.catching(SIGNATURE, e);
+			TRACE.warningT(SIGNATURE, XIAdapterCategories.CONNECT_AF, "XML parser {0} does not support feature {1}.", new Object[] {factory.getClass().getName(), feature});
+		}
+	}
+
+	private static synchronized XMLInputFactory getInputFactory() {
+		if (inputFactory == null) {
+			inputFactory = XMLInputFactory.newInstance();
+			inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			try {
+				inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			} catch (IllegalArgumentException e) {
+				// Without DTD support no external entity can be declared
+				TRACE.catching("getInputFactory()", e);
+			}
+		}
+		return inputFactory;
+	}
+
+	/**
+	 * @return Short statistic of the shared evaluators for trace purposes
+	 */
+	public static String getStatistics() {
+		synchronized (cache) {
+			return "XIXPathEvaluator [cached expressions: " + cache.size() + ", hits: " + hits + ", misses: " + misses + "]";
+		}
+	}
+
+	public String toString() {
+		return "XIXPathEvaluator [" + expression + (isStreaming() ? ", streaming]" : ", DOM]");
+	}
+}